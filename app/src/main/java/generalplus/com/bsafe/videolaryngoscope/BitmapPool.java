@@ -0,0 +1,80 @@
+package com.bsafe.videolaryngoscope;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+
+/**
+ * Anel pequeno de bitmaps do mesmo tamanho, reaproveitados via
+ * {@code BitmapFactory.Options.inBitmap}.
+ *
+ * No máximo {@code capacity} bitmaps do tamanho atual existem ao mesmo tempo;
+ * quem cria o anel dimensiona a capacidade por quantos podem estar emprestados
+ * de uma vez (ver {@link FrameDecoder} e {@link RecordingPlayer}). Quando a
+ * resolução do stream muda, os livres são reciclados e os emprestados são
+ * reciclados ao voltar.
+ */
+final class BitmapPool {
+
+    private final int capacity;
+    private final ArrayDeque<Bitmap> free;
+
+    private int width;
+    private int height;
+    private int created;
+
+    BitmapPool(int capacity) {
+        this.capacity = capacity;
+        this.free = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Empresta um bitmap mutável do tamanho pedido, ou null se todos estiverem em uso.
+     */
+    synchronized Bitmap acquire(int width, int height) {
+        if (width != this.width || height != this.height) {
+            clearFree();
+            this.width = width;
+            this.height = height;
+            created = 0;
+        }
+
+        Bitmap bitmap = free.poll();
+        if (bitmap == null && created < capacity) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            created++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Devolve um bitmap que não está mais visível.
+     */
+    synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+
+        if (bitmap.isMutable() && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            free.push(bitmap);
+        } else {
+            // Tamanho antigo (ou bitmap fora do anel): não será reaproveitado
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Recicla os bitmaps livres; os emprestados serão reciclados ao voltar.
+     */
+    synchronized void clear() {
+        clearFree();
+        width = 0;
+        height = 0;
+        created = 0;
+    }
+
+    private void clearFree() {
+        Bitmap bitmap;
+        while ((bitmap = free.poll()) != null) {
+            bitmap.recycle();
+        }
+    }
+}
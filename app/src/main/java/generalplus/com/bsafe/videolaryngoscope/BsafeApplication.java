@@ -3,10 +3,25 @@ package com.bsafe.videolaryngoscope;
 import android.app.Application;
 import android.util.Log;
 
+import com.bsafe.videolaryngoscope.stream.AviMuxer;
+import com.bsafe.videolaryngoscope.stream.RecordingJournal;
+import com.bsafe.videolaryngoscope.stream.StreamLog;
+import com.bsafe.videolaryngoscope.stream.StreamMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
 public class BsafeApplication extends Application {
 
     private static final String TAG = "BsafeApplication";
 
+    // Compartilhado pelo StreamService (recepção, gravação) e pela CameraActivity (exibição)
+    private final StreamMetrics streamMetrics = new StreamMetrics();
+
+    private ThumbnailCache thumbnailCache;
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -24,5 +39,75 @@ public class BsafeApplication extends Application {
         // 1. libffmpeg.so foi feita para RTSP, não JHCMD
         // 2. libGPCam.so usa protocolo diferente
         // 3. Vamos usar Java puro para JHCMD/UDP
+
+        // O motor de streaming (módulo stream-core) não depende do Android
+        StreamLog.setSink((priority, tag, message, error) -> Log.println(priority, tag,
+                error == null ? message : message + '\n' + Log.getStackTraceString(error)));
+
+        recoverInterruptedRecordings();
+    }
+
+    public StreamMetrics getStreamMetrics() {
+        return streamMetrics;
+    }
+
+    /**
+     * Cache de miniaturas da galeria, criado no primeiro uso.
+     */
+    public synchronized ThumbnailCache getThumbnailCache() {
+        if (thumbnailCache == null) {
+            thumbnailCache = new ThumbnailCache(new File(getCacheDir(), "thumbnails"));
+        }
+        return thumbnailCache;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        synchronized (this) {
+            if (thumbnailCache != null && level >= TRIM_MEMORY_BACKGROUND) {
+                thumbnailCache.trimMemory();
+            }
+        }
+    }
+
+    /**
+     * Finaliza em background gravações que ficaram abertas porque o app foi
+     * encerrado durante a gravação, pelos diários de segmentos. AVIs fora de
+     * qualquer diário só existem se a criação do diário falhou (a gravação
+     * segue sem ele); esses são finalizados varrendo o arquivo. As listas são
+     * tiradas aqui, antes que uma nova gravação possa começar.
+     */
+    private void recoverInterruptedRecordings() {
+        File videoDir = new File(getExternalFilesDir(null), "BsafeMedia/Videos");
+        File[] journals = videoDir.listFiles((dir, name) -> name.endsWith(RecordingJournal.SUFFIX));
+        File[] files = videoDir.listFiles((dir, name) -> name.endsWith(".avi"));
+        if ((journals == null || journals.length == 0) && (files == null || files.length == 0)) return;
+
+        Thread thread = new Thread(() -> {
+            Set<File> journaled = new HashSet<>();
+            if (journals != null) {
+                for (File journal : journals) {
+                    try {
+                        journaled.addAll(RecordingJournal.readSegments(journal));
+                        RecordingJournal.recover(journal);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Não foi possível recuperar " + journal.getName(), e);
+                    }
+                }
+            }
+            if (files == null) return;
+            // Diário não criado (erro de E/S ao iniciar a gravação)
+            for (File file : files) {
+                if (journaled.contains(file)) continue;
+                try {
+                    AviMuxer.recover(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Não foi possível recuperar " + file.getName(), e);
+                }
+            }
+        });
+        thread.setName("RecordingRecovery");
+        thread.start();
     }
 }
\ No newline at end of file
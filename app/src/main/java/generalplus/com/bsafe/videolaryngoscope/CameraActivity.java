@@ -1,12 +1,18 @@
 package com.bsafe.videolaryngoscope;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.SharedPreferences;
+import android.opengl.GLSurfaceView;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.widget.ImageButton;
 import android.widget.ImageView;
@@ -15,16 +21,21 @@ import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
+import androidx.preference.PreferenceManager;
+
+import com.bsafe.videolaryngoscope.stream.FrameBuffer;
+import com.bsafe.videolaryngoscope.stream.SegmentedRecorder;
+import com.bsafe.videolaryngoscope.stream.StreamMetrics;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -34,85 +45,98 @@ public class CameraActivity extends AppCompatActivity {
     private static final String TAG = "CameraActivity";
     private static final String FILE_PROVIDER_AUTHORITY = "com.bsafe.videolaryngoscope.provider";
 
-    // Configurações de rede baseadas na análise do protocolo
-    private static final String DEVICE_IP = "192.168.100.1";
-    private static final int CONTROL_PORT = 20000;  // Porta UDP para comandos
-    private static final int DATA_PORT = 10900;      // Porta UDP para receber vídeo
+    // System.nanoTime() de quando a MainActivity abriu esta tela
+    static final String EXTRA_LAUNCH_NANOS = "LAUNCH_NANOS";
+
+    // Modo de renderização (long-press no preview alterna)
+    private static final String PREF_RENDER_MODE = "render_mode";
+    private static final String RENDER_MODE_GL = "gl";
+    private static final String RENDER_MODE_IMAGE_VIEW = "imageview";
+
+    // Zoom digital por pinça, em passos (cada valor muda o tamanho dos bitmaps decodificados)
+    private static final float ZOOM_STEP = 0.25f;
 
-    // Comandos JHCMD do protocolo proprietário
-    private static final byte[] CMD_HANDSHAKE_1 = {'J', 'H', 'C', 'M', 'D', 0x10, 0x00};
-    private static final byte[] CMD_HANDSHAKE_2 = {'J', 'H', 'C', 'M', 'D', 0x20, 0x00};
-    private static final byte[] CMD_START_STREAM = {'J', 'H', 'C', 'M', 'D', (byte)0xD0, 0x01};
-    private static final byte[] CMD_STOP_STREAM = {'J', 'H', 'C', 'M', 'D', (byte)0xD0, 0x02};
+    // Overlay de telemetria (long-press no status alterna)
+    private static final String PREF_TELEMETRY_OVERLAY = "telemetry_overlay";
 
-    private static final int KEEPALIVE_INTERVAL_MS = 5000; // 5 segundos
+    // Apresentação em vsync: frames de buffer contra jitter, -1 = desligada (long-press no overlay alterna)
+    private static final String PREF_PRESENT_BUFFER = "present_buffer_frames";
 
     // Componentes da UI
     private ImageView streamImageView;
+    private GLSurfaceView glSurfaceView;
     private ImageView flashImageView;
     private TextView statusTextView;
+    private TextView telemetryTextView;
     private ImageButton buttonRecord;
     private ImageButton buttonPhoto;
     private LinearLayout shareLayout;
 
-    // Sockets UDP
-    private DatagramSocket controlSocket;
-    private DatagramSocket dataSocket;
+    // Sessão JHCMD, pré-gravação e gravação vivem no serviço; a tela só consome frames
+    private StreamService streamService; // null até o bind
+    private StreamMetrics streamMetrics;
+    private StreamTelemetry streamTelemetry;
+    private boolean isStarted = false;
 
     // Estado
     private volatile boolean isConnected = false;
-    private volatile boolean isReceivingStream = false;
-    private boolean isRecording = false;
-    private String lastMediaPath = null;
+    private volatile boolean isRecording = false;
+    private List<File> lastMediaFiles = null; // Foto, ou todos os segmentos da gravação
+    private long launchNanos; // 0 após a primeira conexão
 
     // Threads
     private ExecutorService executorService;
-    private Thread streamReceiverThread;
-    private Thread keepAliveThread;
 
-    // Buffer para frames
-    private ByteArrayOutputStream currentFrameData;
-    private int lastFrameCounter = -1;
-    private int packetsInCurrentFrame = 0;
+    // Decodificação
+    private FrameDecoder frameDecoder;
 
-    // Para gravação
-    private FileOutputStream videoOutputStream;
-    private File currentVideoFile;
-    private int framesRecorded = 0;
-
-    // Para captura de foto
-    private Bitmap lastFrameBitmap = null;
+    // Renderização
+    private FrameRenderer frameRenderer;
+    private GlFrameRenderer glFrameRenderer;
+    private ImageViewFrameRenderer imageViewFrameRenderer;
+    private VsyncFramePresenter vsyncPresenter;
+    private int presentBufferFrames = -1;
+    private boolean isResumed = false;
 
     // Handler para UI
     private final Handler uiHandler = new Handler(Looper.getMainLooper()) {
         @Override
         public void handleMessage(@NonNull Message msg) {
             switch (msg.what) {
-                case 1: // Conectado
+                case StreamService.MSG_CONNECTED:
                     isConnected = true;
                     updateStatusText("Status: Conectado");
                     updateButtonStates();
+                    streamTelemetry.start();
                     break;
 
-                case 2: // Desconectado
+                case StreamService.MSG_DISCONNECTED: // O serviço reconecta sozinho
                     isConnected = false;
                     updateStatusText("Status: Desconectado");
                     updateButtonStates();
-                    reconnectAfterDelay();
-                    break;
-
-                case 3: // Frame recebido
-                    byte[] jpegData = (byte[]) msg.obj;
-                    displayFrame(jpegData);
-                    if (isRecording) {
-                        saveFrameToVideo(jpegData);
-                    }
+                    streamTelemetry.stop();
                     break;
 
-                case 4: // Erro
+                case StreamService.MSG_ERROR:
                     String error = (String) msg.obj;
                     updateStatusText("Erro: " + error);
                     break;
+
+                case StreamService.MSG_RECORDING_FINISHED:
+                    onRecordingFinished((SegmentedRecorder) msg.obj, msg.arg1 != 0);
+                    break;
+
+                case StreamService.MSG_PHOTO_SAVED:
+                    onPhotoSaved((File) msg.obj, msg.arg1 != 0);
+                    break;
+
+                case StreamService.MSG_STALLED: // O motor tenta recuperar sem desconectar
+                    if (isConnected) updateStatusText("Status: Sem imagem, reconectando...");
+                    break;
+
+                case StreamService.MSG_RECOVERED:
+                    if (isConnected) updateStatusText("Status: Conectado");
+                    break;
             }
         }
     };
@@ -122,34 +146,88 @@ public class CameraActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.screen_camera);
         Log.d(TAG, "onCreate - Iniciando CameraActivity");
+        if (savedInstanceState == null) {
+            launchNanos = getIntent().getLongExtra(EXTRA_LAUNCH_NANOS, 0);
+        }
 
         executorService = Executors.newCachedThreadPool();
-        currentFrameData = new ByteArrayOutputStream(100 * 1024); // 100KB inicial
+        streamMetrics = ((BsafeApplication) getApplication()).getStreamMetrics();
+        frameDecoder = new FrameDecoder(streamMetrics);
+        frameDecoder.start();
+        vsyncPresenter = new VsyncFramePresenter(frameDecoder, streamMetrics, uiHandler);
 
         initViews();
+
+        // O serviço sobrevive à activity; o bind dura até o onDestroy
+        bindService(new Intent(this, StreamService.class), serviceConnection, BIND_AUTO_CREATE);
+    }
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            onStreamServiceConnected(((StreamService.LocalBinder) binder).getService());
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            // Mesmo processo: só acontece se o processo morrer
+        }
+    };
+
+    private void onStreamServiceConnected(StreamService service) {
+        Log.d(TAG, "Serviço de stream vinculado");
+        streamService = service;
+
+        // A gravação pode ter continuado enquanto a tela não existia
+        isRecording = service.isRecording();
+        buttonRecord.setImageResource(isRecording ? android.R.drawable.ic_media_pause : R.drawable.ic_record);
+
+        if (isStarted) {
+            attachToService();
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        isStarted = true;
+
+        // Em primeiro plano o stream continua ao sair brevemente da tela
+        ContextCompat.startForegroundService(this, new Intent(this, StreamService.class));
+        if (streamService != null) {
+            attachToService();
+        }
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        Log.d(TAG, "onResume - Conectando ao dispositivo");
-
-        // Inicia conexão após pequeno delay
-        uiHandler.postDelayed(() -> {
-            executorService.execute(this::connectToDevice);
-        }, 500);
+        Log.d(TAG, "onResume");
+        isResumed = true;
+        frameRenderer.onResume();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        Log.d(TAG, "onPause - Desconectando");
+        Log.d(TAG, "onPause");
+        isResumed = false;
+        frameRenderer.onPause();
+    }
 
-        if (isRecording) {
-            stopRecording();
+    @Override
+    protected void onStop() {
+        super.onStop();
+        isStarted = false;
+
+        // Sessão e gravação continuam no serviço; só deixamos de exibir
+        if (streamService != null) {
+            Log.d(TAG, "onStop - Desvinculando consumidor de frames");
+            streamService.detach();
+            uiHandler.removeMessages(StreamService.MSG_CONNECTED);
+            streamTelemetry.stop();
+            isConnected = false;
         }
-
-        disconnectFromDevice();
     }
 
     @Override
@@ -157,25 +235,115 @@ public class CameraActivity extends AppCompatActivity {
         super.onDestroy();
         Log.d(TAG, "onDestroy");
 
-        if (executorService != null) {
-            executorService.shutdown();
+        // Voltar da tela encerra a sessão; recriação (ex.: mudança de configuração) não
+        if (streamService != null && isFinishing()) {
+            streamService.shutdown();
         }
+        streamService = null;
+        unbindService(serviceConnection);
+
+        // Exporta o último trecho antes de encerrar o executor
+        streamTelemetry.stop();
+        executorService.shutdown();
+
+        // Solta os bitmaps do renderer antes de reciclar o anel
+        frameDecoder.setRenderer(null);
+        vsyncPresenter.detach();
+        frameRenderer.detach();
+        frameDecoder.stop();
+    }
+
+    /**
+     * Passa a receber frames e eventos do serviço e garante que a sessão exista
+     */
+    private void attachToService() {
+        // Primeira exibição: mede desde a MainActivity; depois, desde a volta à tela
+        streamMetrics.markSessionStart(launchNanos != 0 ? launchNanos : System.nanoTime());
+        launchNanos = 0;
+
+        // A referência de cada frame passa para o decoder, que descarta frames obsoletos
+        streamService.attach(frameDecoder::submit, uiHandler);
+        if (!streamService.isConnected()) {
+            updateStatusText("Conectando...");
+        }
+        streamService.startSession();
     }
 
     private void initViews() {
         // Localiza views
         streamImageView = findViewById(R.id.jpeg_image_view);
+        glSurfaceView = findViewById(R.id.gl_surface_view);
         flashImageView = findViewById(R.id.flash_image_view);
         statusTextView = findViewById(R.id.download_status_textview);
+        telemetryTextView = findViewById(R.id.telemetry_text_view);
         buttonRecord = findViewById(R.id.button_record);
         buttonPhoto = findViewById(R.id.button_photo);
         shareLayout = findViewById(R.id.share_layout);
 
-        // Configuração inicial
-        streamImageView.setVisibility(View.VISIBLE);
-        findViewById(R.id.gl_surface_view).setVisibility(View.GONE); // Não usa OpenGL
+        // Configuração inicial: OpenGL quando disponível, ImageView como alternativa
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        presentBufferFrames = prefs.getInt(PREF_PRESENT_BUFFER, -1);
+        String defaultMode = supportsGles2() ? RENDER_MODE_GL : RENDER_MODE_IMAGE_VIEW;
+        setRenderMode(RENDER_MODE_GL.equals(prefs.getString(PREF_RENDER_MODE, defaultMode)));
+
+        streamTelemetry = new StreamTelemetry(streamMetrics, telemetryTextView, uiHandler,
+                executorService, new File(getExternalFilesDir(null), "BsafeMedia/Telemetry"));
+        streamTelemetry.setOverlayVisible(prefs.getBoolean(PREF_TELEMETRY_OVERLAY, false));
 
         // Listeners
+        View.OnLongClickListener toggleRenderMode = v -> {
+            toggleRenderMode();
+            return true;
+        };
+        streamImageView.setOnLongClickListener(toggleRenderMode);
+        glSurfaceView.setOnLongClickListener(toggleRenderMode);
+
+        // Decodifica no tamanho da view visível (ex.: tela dividida), não no do frame
+        View.OnLayoutChangeListener trackPreviewSize = (v, left, top, right, bottom,
+                                                        oldLeft, oldTop, oldRight, oldBottom) -> {
+            if (v.getVisibility() == View.VISIBLE) {
+                frameDecoder.setTargetSize(right - left, bottom - top);
+            }
+        };
+        streamImageView.addOnLayoutChangeListener(trackPreviewSize);
+        glSurfaceView.addOnLayoutChangeListener(trackPreviewSize);
+
+        // Pinça no preview: zoom digital, decodificando só o trecho visível
+        ScaleGestureDetector zoomDetector = new ScaleGestureDetector(this,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    private float gestureZoom;
+
+                    @Override
+                    public boolean onScaleBegin(ScaleGestureDetector detector) {
+                        gestureZoom = frameDecoder.getZoom();
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        gestureZoom = Math.max(1f, Math.min(FrameDecoder.MAX_ZOOM,
+                                gestureZoom * detector.getScaleFactor()));
+                        frameDecoder.setZoom(Math.round(gestureZoom / ZOOM_STEP) * ZOOM_STEP);
+                        return true;
+                    }
+                });
+        View.OnTouchListener pinchToZoom = (v, event) -> {
+            zoomDetector.onTouchEvent(event);
+            if (zoomDetector.isInProgress()) {
+                v.cancelLongPress();
+            }
+            return false; // O long-press (modo de renderização) segue com a view
+        };
+        streamImageView.setOnTouchListener(pinchToZoom);
+        glSurfaceView.setOnTouchListener(pinchToZoom);
+        statusTextView.setOnLongClickListener(v -> {
+            toggleTelemetryOverlay();
+            return true;
+        });
+        telemetryTextView.setOnLongClickListener(v -> {
+            cyclePresentBuffer();
+            return true;
+        });
         findViewById(R.id.button_back).setOnClickListener(v -> finish());
         buttonRecord.setOnClickListener(v -> toggleRecording());
         buttonPhoto.setOnClickListener(v -> capturePhoto());
@@ -184,281 +352,158 @@ public class CameraActivity extends AppCompatActivity {
         updateButtonStates();
     }
 
-    /**
-     * Conecta ao dispositivo usando protocolo JHCMD
-     */
-    private void connectToDevice() {
-        try {
-            Log.d(TAG, ">>> INICIANDO CONEXÃO COM CÂMERA <<<");
-            updateStatusText("Conectando...");
-
-            // Cria sockets
-            controlSocket = new DatagramSocket();
-            controlSocket.setSoTimeout(3000);
-
-            dataSocket = new DatagramSocket(DATA_PORT);
-            dataSocket.setSoTimeout(100); // Timeout curto
-
-            Log.d(TAG, "Sockets criados - Porta de dados: " + DATA_PORT);
-
-            InetAddress deviceAddress = InetAddress.getByName(DEVICE_IP);
-
-            // Sequência de inicialização
-            Log.d(TAG, "Enviando handshake...");
-
-            sendCommand(CMD_HANDSHAKE_1, deviceAddress);
-            Thread.sleep(200);
-
-            sendCommand(CMD_HANDSHAKE_2, deviceAddress);
-            Thread.sleep(200);
-
-            sendCommand(CMD_START_STREAM, deviceAddress);
-            Thread.sleep(100);
-            sendCommand(CMD_START_STREAM, deviceAddress); // Envia 2x
-
-            // Inicia threads
-            isReceivingStream = true;
-            startStreamReceiver();
-            startKeepAlive(deviceAddress);
-
-            uiHandler.sendEmptyMessage(1);
-            Log.d(TAG, ">>> CONEXÃO ESTABELECIDA <<<");
-
-        } catch (Exception e) {
-            Log.e(TAG, "ERRO ao conectar", e);
-            Message msg = uiHandler.obtainMessage(4, "Falha na conexão: " + e.getMessage());
-            uiHandler.sendMessage(msg);
-            disconnectFromDevice();
-        }
-    }
-
-    private void sendCommand(byte[] command, InetAddress address) throws Exception {
-        DatagramPacket packet = new DatagramPacket(
-                command, command.length, address, CONTROL_PORT
-        );
-        controlSocket.send(packet);
-
-        // Log para debug
-        StringBuilder hex = new StringBuilder("CMD enviado: ");
-        for (byte b : command) {
-            hex.append(String.format("%02X ", b & 0xFF));
-        }
-        Log.d(TAG, hex.toString());
+    private boolean supportsGles2() {
+        ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        return am != null && am.getDeviceConfigurationInfo().reqGlEsVersion >= 0x20000;
     }
 
     /**
-     * Thread receptora de stream
+     * Seleciona o renderer: OpenGL (textura na thread de render) ou ImageView
      */
-    private void startStreamReceiver() {
-        streamReceiverThread = new Thread(() -> {
-            byte[] buffer = new byte[1500];
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-
-            Log.d(TAG, "Receptor iniciado na porta " + DATA_PORT);
-
-            int totalPackets = 0;
-            long startTime = System.currentTimeMillis();
-
-            while (isReceivingStream) {
-                try {
-                    dataSocket.receive(packet);
-                    totalPackets++;
-
-                    // Log periódico
-                    if (totalPackets % 100 == 0) {
-                        long elapsed = System.currentTimeMillis() - startTime;
-                        float rate = (totalPackets * 1000f) / elapsed;
-                        Log.d(TAG, String.format("Pacotes: %d (%.0f/s)", totalPackets, rate));
-                    }
+    private void setRenderMode(boolean useGl) {
+        if (useGl && !supportsGles2()) {
+            useGl = false;
+        }
 
-                    // Processa pacote
-                    processPacket(packet.getData(), packet.getLength());
+        if (frameRenderer != null) {
+            frameDecoder.setRenderer(null);
+            vsyncPresenter.detach();
+            frameRenderer.detach();
+        }
 
-                } catch (Exception e) {
-                    // Timeout é normal, outros erros não
-                    if (!e.getMessage().contains("timeout") && isReceivingStream) {
-                        Log.e(TAG, "Erro recebendo", e);
-                    }
-                }
+        if (useGl) {
+            if (glFrameRenderer == null) {
+                // setRenderer() só pode ser chamado uma vez por GLSurfaceView
+                glFrameRenderer = new GlFrameRenderer(glSurfaceView, frameDecoder);
             }
-
-            Log.d(TAG, "Receptor finalizado. Total: " + totalPackets + " pacotes");
-        });
-
-        streamReceiverThread.setName("StreamRX");
-        streamReceiverThread.start();
-    }
-
-    /**
-     * Processa pacote de vídeo
-     */
-    private void processPacket(byte[] data, int length) {
-        if (length <= 8) return; // Muito pequeno
-
-        // Header de 8 bytes
-        int frameNum = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
-        int packetIdx = data[3] & 0xFF;
-
-        // Novo frame?
-        if (frameNum != lastFrameCounter || packetIdx == 0) {
-            if (currentFrameData.size() > 0) {
-                checkAndSendFrame();
+            frameRenderer = glFrameRenderer;
+        } else {
+            if (imageViewFrameRenderer == null) {
+                imageViewFrameRenderer = new ImageViewFrameRenderer(streamImageView, uiHandler, frameDecoder);
             }
-            lastFrameCounter = frameNum;
-            currentFrameData.reset();
-            packetsInCurrentFrame = 0;
+            frameRenderer = imageViewFrameRenderer;
         }
 
-        // Adiciona dados (pula header)
-        currentFrameData.write(data, 8, length - 8);
-        packetsInCurrentFrame++;
+        glSurfaceView.setVisibility(useGl ? View.VISIBLE : View.GONE);
+        streamImageView.setVisibility(useGl ? View.GONE : View.VISIBLE);
 
-        // Verifica fim do JPEG (FFD9)
-        if (length >= 10) {
-            int p = length - 2;
-            if ((data[p] & 0xFF) == 0xFF && (data[p + 1] & 0xFF) == 0xD9) {
-                checkAndSendFrame();
-            }
+        frameRenderer.attach();
+        if (isResumed) {
+            frameRenderer.onResume();
         }
+        routeFrames();
+        Log.d(TAG, "Modo de renderização: " + (useGl ? RENDER_MODE_GL : RENDER_MODE_IMAGE_VIEW));
     }
 
     /**
-     * Verifica e envia frame completo
+     * Liga o decoder ao renderer, direto ou pelo estágio de apresentação em vsync
      */
-    private void checkAndSendFrame() {
-        byte[] jpeg = currentFrameData.toByteArray();
-
-        // Valida JPEG (começa com FFD8)
-        if (jpeg.length > 2 &&
-                (jpeg[0] & 0xFF) == 0xFF &&
-                (jpeg[1] & 0xFF) == 0xD8) {
-
-            Message msg = uiHandler.obtainMessage(3, jpeg);
-            uiHandler.sendMessage(msg);
+    private void routeFrames() {
+        if (presentBufferFrames >= 0) {
+            vsyncPresenter.setBufferFrames(presentBufferFrames);
+            vsyncPresenter.setTarget(frameRenderer);
+            vsyncPresenter.attach();
+            frameDecoder.setRenderer(vsyncPresenter);
+        } else {
+            frameDecoder.setRenderer(frameRenderer);
         }
-
-        currentFrameData.reset();
-        packetsInCurrentFrame = 0;
-    }
-
-    /**
-     * Thread de keep-alive
-     */
-    private void startKeepAlive(InetAddress address) {
-        keepAliveThread = new Thread(() -> {
-            Log.d(TAG, "Keep-alive iniciado");
-            int count = 0;
-
-            while (isReceivingStream) {
-                try {
-                    Thread.sleep(KEEPALIVE_INTERVAL_MS);
-                    sendCommand(CMD_START_STREAM, address);
-
-                    if (++count % 10 == 0) {
-                        Log.d(TAG, "Keep-alive #" + count);
-                    }
-                } catch (Exception e) {
-                    if (isReceivingStream) {
-                        Log.e(TAG, "Erro keep-alive", e);
-                    }
-                }
-            }
-        });
-
-        keepAliveThread.setName("KeepAlive");
-        keepAliveThread.start();
     }
 
-    /**
-     * Desconecta do dispositivo
-     */
-    private void disconnectFromDevice() {
-        Log.d(TAG, ">>> DESCONECTANDO <<<");
-        isReceivingStream = false;
-
-        // Envia comando stop
-        try {
-            if (controlSocket != null && !controlSocket.isClosed()) {
-                sendCommand(CMD_STOP_STREAM, InetAddress.getByName(DEVICE_IP));
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Erro enviando STOP", e);
-        }
-
-        // Fecha sockets
-        if (controlSocket != null) controlSocket.close();
-        if (dataSocket != null) dataSocket.close();
-
-        // Aguarda threads
-        try {
-            if (streamReceiverThread != null) {
-                streamReceiverThread.join(2000);
-            }
-            if (keepAliveThread != null) {
-                keepAliveThread.join(1000);
-            }
-        } catch (InterruptedException ignored) {}
+    private void toggleRenderMode() {
+        boolean useGl = frameRenderer != glFrameRenderer;
+        setRenderMode(useGl);
 
-        uiHandler.sendEmptyMessage(2);
+        useGl = frameRenderer == glFrameRenderer;
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putString(PREF_RENDER_MODE, useGl ? RENDER_MODE_GL : RENDER_MODE_IMAGE_VIEW)
+                .apply();
+        Toast.makeText(this, useGl ? "Renderização: OpenGL" : "Renderização: ImageView",
+                Toast.LENGTH_SHORT).show();
     }
 
     /**
-     * Reconecta após delay
+     * Desligada → 0 → 1 → 2 frames de buffer → desligada
      */
-    private void reconnectAfterDelay() {
-        uiHandler.postDelayed(() -> {
-            if (!isConnected && !isFinishing()) {
-                executorService.execute(this::connectToDevice);
-            }
-        }, 3000);
+    private void cyclePresentBuffer() {
+        presentBufferFrames = presentBufferFrames < VsyncFramePresenter.MAX_BUFFER_FRAMES
+                ? presentBufferFrames + 1 : -1;
+
+        frameDecoder.setRenderer(null);
+        vsyncPresenter.detach();
+        routeFrames();
+
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putInt(PREF_PRESENT_BUFFER, presentBufferFrames)
+                .apply();
+        Toast.makeText(this, presentBufferFrames < 0 ? "Apresentação em vsync: desligada"
+                : "Apresentação em vsync: buffer de " + presentBufferFrames + " frame(s)",
+                Toast.LENGTH_SHORT).show();
     }
 
-    /**
-     * Exibe frame na tela
-     */
-    private void displayFrame(byte[] jpegData) {
-        try {
-            Bitmap bitmap = BitmapFactory.decodeByteArray(jpegData, 0, jpegData.length);
-            if (bitmap != null) {
-                lastFrameBitmap = bitmap;
-                runOnUiThread(() -> streamImageView.setImageBitmap(bitmap));
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Erro exibindo frame", e);
-        }
+    private void toggleTelemetryOverlay() {
+        boolean visible = !streamTelemetry.isOverlayVisible();
+        streamTelemetry.setOverlayVisible(visible);
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putBoolean(PREF_TELEMETRY_OVERLAY, visible)
+                .apply();
     }
 
     /**
-     * Captura foto
+     * Captura foto: grava o JPEG recebido do dispositivo, sem recomprimir
      */
     private void capturePhoto() {
-        if (!isConnected || lastFrameBitmap == null) {
+        if (!isConnected) {
             Toast.makeText(this, "Aguarde conexão", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        try {
-            File photoDir = new File(getExternalFilesDir(null), "BsafeMedia/Images");
-            if (!photoDir.exists()) photoDir.mkdirs();
-
-            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault())
-                    .format(new Date());
-            File photoFile = new File(photoDir, "IMG_" + timestamp + ".jpg");
+        FrameBuffer frame = streamService.retainLastFrame();
+        if (frame == null) {
+            Toast.makeText(this, "Aguarde conexão", Toast.LENGTH_SHORT).show();
+            return;
+        }
 
-            FileOutputStream out = new FileOutputStream(photoFile);
-            lastFrameBitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
-            out.close();
+        File photoDir = new File(getExternalFilesDir(null), "BsafeMedia/Images");
+        long captureTime = System.currentTimeMillis();
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault())
+                .format(new Date(captureTime));
+        File photoFile = new File(photoDir, "IMG_" + timestamp + ".jpg");
 
-            lastMediaPath = photoFile.getAbsolutePath();
+        // O obturador responde já; a escrita e o aviso ficam para o background (MSG_PHOTO_SAVED)
+        showFlashEffect();
+        executorService.execute(() -> savePhoto(frame, photoFile, captureTime));
+    }
 
-            showFlashEffect();
-            Toast.makeText(this, "Foto salva!", Toast.LENGTH_SHORT).show();
-            showShareOption();
+    private void savePhoto(FrameBuffer frame, File photoFile, long captureTime) {
+        boolean saved = false;
+        try {
+            File photoDir = photoFile.getParentFile();
+            if (!photoDir.exists()) photoDir.mkdirs();
 
+            // A imagem do videolaringoscópio é exibida sem rotação
+            try (FileOutputStream out = new FileOutputStream(photoFile)) {
+                JpegExif.write(out, frame.getData(), frame.getLength(),
+                        JpegExif.ORIENTATION_NORMAL, captureTime);
+            }
+            saved = true;
         } catch (Exception e) {
             Log.e(TAG, "Erro salvando foto", e);
+            photoFile.delete();
+        } finally {
+            frame.release();
+        }
+        uiHandler.obtainMessage(StreamService.MSG_PHOTO_SAVED, saved ? 1 : 0, 0, photoFile).sendToTarget();
+    }
+
+    private void onPhotoSaved(File photoFile, boolean success) {
+        if (!success) {
             Toast.makeText(this, "Erro ao salvar", Toast.LENGTH_SHORT).show();
+            return;
         }
+
+        lastMediaFiles = Collections.singletonList(photoFile);
+        Toast.makeText(this, "Foto salva!", Toast.LENGTH_SHORT).show();
+        showShareOption();
     }
 
     /**
@@ -484,14 +529,15 @@ public class CameraActivity extends AppCompatActivity {
 
             String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault())
                     .format(new Date());
-            currentVideoFile = new File(videoDir, "VID_" + timestamp + ".mjpeg");
+            File videoFile = new File(videoDir, "VID_" + timestamp + ".avi");
 
-            videoOutputStream = new FileOutputStream(currentVideoFile);
-            framesRecorded = 0;
+            // O arquivo começa com os segundos anteriores; o fim chega via MSG_RECORDING_FINISHED
+            long preRollMs = streamService.startRecording(videoFile);
             isRecording = true;
 
             buttonRecord.setImageResource(android.R.drawable.ic_media_pause);
-            Toast.makeText(this, "Gravando...", Toast.LENGTH_SHORT).show();
+            Toast.makeText(this, preRollMs >= 1000 ? "Gravando (+" + preRollMs / 1000 + " s anteriores)..."
+                    : "Gravando...", Toast.LENGTH_SHORT).show();
 
         } catch (Exception e) {
             Log.e(TAG, "Erro iniciando gravação", e);
@@ -500,39 +546,28 @@ public class CameraActivity extends AppCompatActivity {
 
     private void stopRecording() {
         isRecording = false;
+        buttonRecord.setImageResource(R.drawable.ic_record);
 
-        try {
-            if (videoOutputStream != null) {
-                videoOutputStream.close();
-                videoOutputStream = null;
-            }
+        // O writer termina de gravar em background e avisa via uiHandler
+        streamService.stopRecording();
+    }
 
-            if (currentVideoFile != null) {
-                lastMediaPath = currentVideoFile.getAbsolutePath();
-                buttonRecord.setImageResource(R.drawable.ic_record);
-                Toast.makeText(this, "Gravação salva! (" + framesRecorded + " frames)",
-                        Toast.LENGTH_SHORT).show();
-                showShareOption();
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Erro parando gravação", e);
+    private void onRecordingFinished(SegmentedRecorder recorder, boolean success) {
+        if (!success) {
+            Toast.makeText(this, "Erro ao salvar gravação", Toast.LENGTH_SHORT).show();
+            return;
         }
-    }
 
-    private void saveFrameToVideo(byte[] jpegData) {
-        if (videoOutputStream != null) {
-            try {
-                // Salva tamanho + dados
-                videoOutputStream.write((jpegData.length >> 24) & 0xFF);
-                videoOutputStream.write((jpegData.length >> 16) & 0xFF);
-                videoOutputStream.write((jpegData.length >> 8) & 0xFF);
-                videoOutputStream.write(jpegData.length & 0xFF);
-                videoOutputStream.write(jpegData);
-                framesRecorded++;
-            } catch (Exception e) {
-                Log.e(TAG, "Erro salvando frame", e);
-            }
+        lastMediaFiles = recorder.getSegmentFiles();
+        String message = "Gravação salva! (" + recorder.getFramesAccepted() + " frames";
+        if (lastMediaFiles.size() > 1) {
+            message += " em " + lastMediaFiles.size() + " partes";
+        }
+        if (recorder.getFramesDropped() > 0) {
+            message += ", " + recorder.getFramesDropped() + " descartados";
         }
+        Toast.makeText(this, message + ")", Toast.LENGTH_SHORT).show();
+        showShareOption();
     }
 
     private void showFlashEffect() {
@@ -554,22 +589,35 @@ public class CameraActivity extends AppCompatActivity {
     }
 
     private void shareLastMedia() {
-        if (lastMediaPath == null) {
+        if (lastMediaFiles == null || lastMediaFiles.isEmpty()) {
             Toast.makeText(this, "Nada para compartilhar", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        File file = new File(lastMediaPath);
-        if (!file.exists()) {
-            Toast.makeText(this, "Arquivo não encontrado", Toast.LENGTH_SHORT).show();
-            return;
+        for (File file : lastMediaFiles) {
+            if (!file.exists()) {
+                Toast.makeText(this, "Arquivo não encontrado", Toast.LENGTH_SHORT).show();
+                return;
+            }
         }
 
         try {
-            android.net.Uri uri = FileProvider.getUriForFile(this, FILE_PROVIDER_AUTHORITY, file);
-            android.content.Intent intent = new android.content.Intent(android.content.Intent.ACTION_SEND);
-            intent.setType(file.getName().endsWith(".jpg") ? "image/jpeg" : "video/*");
-            intent.putExtra(android.content.Intent.EXTRA_STREAM, uri);
+            File first = lastMediaFiles.get(0);
+            android.content.Intent intent;
+            if (lastMediaFiles.size() == 1) {
+                intent = new android.content.Intent(android.content.Intent.ACTION_SEND);
+                intent.putExtra(android.content.Intent.EXTRA_STREAM,
+                        FileProvider.getUriForFile(this, FILE_PROVIDER_AUTHORITY, first));
+            } else {
+                // Gravação em segmentos: todas as partes, na ordem
+                ArrayList<android.net.Uri> uris = new ArrayList<>(lastMediaFiles.size());
+                for (File file : lastMediaFiles) {
+                    uris.add(FileProvider.getUriForFile(this, FILE_PROVIDER_AUTHORITY, file));
+                }
+                intent = new android.content.Intent(android.content.Intent.ACTION_SEND_MULTIPLE);
+                intent.putParcelableArrayListExtra(android.content.Intent.EXTRA_STREAM, uris);
+            }
+            intent.setType(first.getName().endsWith(".jpg") ? "image/jpeg" : "video/x-msvideo");
             intent.addFlags(android.content.Intent.FLAG_GRANT_READ_URI_PERMISSION);
             startActivity(android.content.Intent.createChooser(intent, "Compartilhar"));
         } catch (Exception e) {
@@ -0,0 +1,234 @@
+package com.bsafe.videolaryngoscope;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import generalplus.com.GPCamLib.CamWrapper;
+
+/**
+ * Catálogo em memória dos arquivos do dispositivo, indexado pelo nome, com
+ * índice, tamanho e data extraída do nome de cada arquivo.
+ *
+ * O dispositivo acrescenta arquivos ao fim da lista, então o refresh confere
+ * só o primeiro e o último nome já conhecidos e lê apenas os índices novos;
+ * se não baterem (arquivos apagados ou cartão trocado) a lista é relida
+ * inteira. O mais recente é mantido a cada inserção. Um snapshot em disco
+ * deixa o catálogo pronto na próxima sessão.
+ */
+final class DeviceFileCatalog {
+
+    private static final String TAG = "DeviceFileCatalog";
+
+    private static final String SNAPSHOT_HEADER = "catalog-v1";
+    private static final int TIMESTAMP_DIGITS = 14; // yyyyMMddHHmmss
+
+    static final class Entry {
+        final String name;
+        final int index;
+        final long size;
+        /** Data de criação extraída do nome, ou -1 se o nome não tiver data. */
+        final long timestampMillis;
+
+        Entry(String name, int index, long size, long timestampMillis) {
+            this.name = name;
+            this.index = index;
+            this.size = size;
+            this.timestampMillis = timestampMillis;
+        }
+
+        /**
+         * Mais recente primeiro pela data do nome; sem data (ou empate), pelo
+         * nome, como a ordenação heurística antiga.
+         */
+        boolean isNewerThan(Entry other) {
+            if (timestampMillis != other.timestampMillis) {
+                return timestampMillis > other.timestampMillis;
+            }
+            return name.compareTo(other.name) > 0;
+        }
+    }
+
+    private final File snapshotFile;
+
+    private final Map<String, Entry> byName = new HashMap<>();
+    // Posição = índice no dispositivo; null onde o nome veio vazio
+    private final List<Entry> byIndex = new ArrayList<>();
+    private Entry latest;
+    private boolean loaded = false;
+    private boolean dirty = false;
+
+    DeviceFileCatalog(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Sincroniza o catálogo com a lista atual do dispositivo (após
+     * GPCamSendGetFullFileList). Retorna quantos nomes foram lidos da câmera.
+     */
+    synchronized int refresh(CamWrapper camWrapper, int fileCount) {
+        ensureLoaded();
+
+        int known = byIndex.size();
+        int reads = 0;
+        if (known > 0) {
+            boolean unchanged = known <= fileCount;
+            if (unchanged) {
+                unchanged = matches(camWrapper, 0) && (known == 1 || matches(camWrapper, known - 1));
+                reads += known == 1 ? 1 : 2;
+            }
+            if (!unchanged) {
+                Log.i(TAG, "Lista do dispositivo mudou (" + known + " -> " + fileCount + " arquivos); relendo tudo");
+                clear();
+                known = 0;
+            }
+        }
+
+        for (int i = known; i < fileCount; i++) {
+            String name = camWrapper.GPCamGetFileName(i);
+            reads++;
+            if (name == null || name.isEmpty()) {
+                byIndex.add(null);
+                continue;
+            }
+            add(new Entry(name, i, camWrapper.GPCamGetFileSize(i), parseTimestamp(name)));
+            dirty = true;
+        }
+        if (known < fileCount) {
+            Log.d(TAG, "Catálogo: " + (fileCount - known) + " arquivos novos, " + byName.size() + " no total");
+        }
+        return reads;
+    }
+
+    private boolean matches(CamWrapper camWrapper, int index) {
+        Entry entry = byIndex.get(index);
+        return entry != null && entry.name.equals(camWrapper.GPCamGetFileName(index));
+    }
+
+    synchronized Entry getLatest() {
+        return latest;
+    }
+
+    synchronized Entry get(String name) {
+        ensureLoaded();
+        return byName.get(name);
+    }
+
+    /**
+     * Entradas na ordem do dispositivo.
+     */
+    synchronized List<Entry> getEntries() {
+        ensureLoaded();
+        List<Entry> entries = new ArrayList<>(byName.size());
+        for (Entry entry : byIndex) {
+            if (entry != null) entries.add(entry);
+        }
+        return entries;
+    }
+
+    synchronized int size() {
+        return byName.size();
+    }
+
+    private void add(Entry entry) {
+        byIndex.add(entry);
+        byName.put(entry.name, entry);
+        if (latest == null || entry.isNewerThan(latest)) {
+            latest = entry;
+        }
+    }
+
+    private void clear() {
+        byIndex.clear();
+        byName.clear();
+        latest = null;
+        dirty = true;
+    }
+
+    /**
+     * Extrai a data dos 14 primeiros dígitos do nome (ex.: 2024_0115_143022.AVI
+     * ou IMG_20240115_143022.JPG). Retorna -1 se não houver data válida.
+     */
+    static long parseTimestamp(String name) {
+        StringBuilder digits = new StringBuilder(TIMESTAMP_DIGITS);
+        for (int i = 0; i < name.length() && digits.length() < TIMESTAMP_DIGITS; i++) {
+            char c = name.charAt(i);
+            if (c >= '0' && c <= '9') digits.append(c);
+        }
+        if (digits.length() < TIMESTAMP_DIGITS) return -1;
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss", Locale.US);
+        format.setLenient(false);
+        try {
+            return format.parse(digits.toString()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (!snapshotFile.exists()) return;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(snapshotFile))) {
+            if (!SNAPSHOT_HEADER.equals(reader.readLine())) {
+                Log.w(TAG, "Snapshot do catálogo em formato desconhecido; ignorando");
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                int index = Integer.parseInt(fields[0]);
+                while (byIndex.size() < index) byIndex.add(null);
+                add(new Entry(fields[3], index, Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            }
+            Log.i(TAG, "Catálogo carregado do snapshot: " + byName.size() + " arquivos");
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Snapshot do catálogo inválido; será refeito", e);
+            byIndex.clear();
+            byName.clear();
+            latest = null;
+        }
+    }
+
+    /**
+     * Grava o snapshot se o catálogo mudou desde a última gravação.
+     */
+    synchronized void saveIfDirty() {
+        if (!dirty) return;
+
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new FileWriter(tempFile))) {
+            writer.write(SNAPSHOT_HEADER);
+            writer.write('\n');
+            for (Entry entry : byIndex) {
+                if (entry == null) continue;
+                writer.write(entry.index + "\t" + entry.size + "\t" + entry.timestampMillis + "\t" + entry.name);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Erro gravando snapshot do catálogo", e);
+            tempFile.delete();
+            return;
+        }
+        if (tempFile.renameTo(snapshotFile)) {
+            dirty = false;
+        } else {
+            Log.w(TAG, "Falha ao substituir snapshot do catálogo");
+        }
+    }
+}
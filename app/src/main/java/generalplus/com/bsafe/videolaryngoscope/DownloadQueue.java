@@ -0,0 +1,354 @@
+package com.bsafe.videolaryngoscope;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import generalplus.com.GPCamLib.CamWrapper;
+
+/**
+ * Fila de downloads do dispositivo para descarregar vários arquivos de uma vez
+ * (ex.: fim de turno).
+ *
+ * Os arquivos são baixados um de cada vez: o caminho de destino do CamWrapper
+ * (SetGPCamSetDownloadPath) é global, então dois pedidos GPCamSendGetFileRawdata
+ * simultâneos gravariam no arquivo errado. O próximo pedido sai assim que o
+ * anterior termina, sem passar pela UI. Cada arquivo é baixado para um
+ * ".part" e renomeado ao concluir; arquivos já presentes com o mesmo tamanho
+ * são pulados. A lista pendente é gravada em disco para que um
+ * descarregamento interrompido continue na próxima sessão. Uma vez por
+ * segundo o progresso agregado (MB/s e ETA) vai para o {@link Listener}.
+ */
+final class DownloadQueue implements Runnable {
+
+    private static final String TAG = "DownloadQueue";
+
+    private static final long PROGRESS_INTERVAL_MS = 1000;
+    // Download sem crescer o .part por esse tempo é dado como perdido
+    private static final long STALL_TIMEOUT_MS = 15000;
+    private static final String PART_SUFFIX = ".part";
+
+    interface Listener {
+        /** {@code alreadyPresent}: o arquivo local já tinha o tamanho do dispositivo. */
+        void onFileDownloaded(String name, File file, boolean alreadyPresent);
+
+        void onFileFailed(String name, String reason);
+
+        void onProgress(Progress progress);
+
+        void onQueueFinished(Progress progress);
+    }
+
+    static final class Progress {
+        final int filesTotal;
+        final int filesDone;
+        final int filesSkipped;
+        final int filesFailed;
+        final long bytesTotal;
+        final long bytesDone;
+        final double megabytesPerSecond;
+        /** Segundos restantes estimados, ou -1 sem taxa medida. */
+        final long etaSeconds;
+
+        Progress(int filesTotal, int filesDone, int filesSkipped, int filesFailed,
+                 long bytesTotal, long bytesDone, double megabytesPerSecond, long etaSeconds) {
+            this.filesTotal = filesTotal;
+            this.filesDone = filesDone;
+            this.filesSkipped = filesSkipped;
+            this.filesFailed = filesFailed;
+            this.bytesTotal = bytesTotal;
+            this.bytesDone = bytesDone;
+            this.megabytesPerSecond = megabytesPerSecond;
+            this.etaSeconds = etaSeconds;
+        }
+    }
+
+    private static final class Task {
+        final DeviceFileCatalog.Entry entry;
+        final File target;
+        final File part;
+        long lastLength;
+        long lastGrowthMs;
+
+        Task(DeviceFileCatalog.Entry entry, File targetDir) {
+            this.entry = entry;
+            this.target = new File(targetDir, entry.name);
+            this.part = new File(targetDir, entry.name + PART_SUFFIX);
+        }
+    }
+
+    private final CamWrapper camWrapper;
+    private final Handler handler;
+    private final File stateFile;
+    private final Listener listener;
+
+    // Protegidos por this
+    private final ArrayDeque<Task> pending = new ArrayDeque<>();
+    private final Map<String, Task> inFlight = new HashMap<>(); // No máximo um; chave: caminho do .part
+    private int filesTotal;
+    private int filesDone;
+    private int filesSkipped;
+    private int filesFailed;
+    private long bytesTotal;
+    private long bytesCompleted;
+    private long startedAtMs = -1;
+    private boolean ticking = false;
+
+    DownloadQueue(CamWrapper camWrapper, Handler handler, File stateFile, Listener listener) {
+        this.camWrapper = camWrapper;
+        this.handler = handler;
+        this.stateFile = stateFile;
+        this.listener = listener;
+    }
+
+    synchronized boolean isActive() {
+        return !pending.isEmpty() || !inFlight.isEmpty();
+    }
+
+    /**
+     * Acrescenta arquivos à fila; os que já estão nela são ignorados.
+     */
+    void enqueue(Collection<DeviceFileCatalog.Entry> entries, File targetDir) {
+        synchronized (this) {
+            Set<String> queued = new LinkedHashSet<>();
+            for (Task task : pending) queued.add(task.entry.name);
+            for (Task task : inFlight.values()) queued.add(task.entry.name);
+
+            if (!isActive()) resetCounters();
+            for (DeviceFileCatalog.Entry entry : entries) {
+                if (!queued.add(entry.name)) continue;
+                pending.add(new Task(entry, targetDir));
+                filesTotal++;
+            }
+            saveState();
+            startTicker();
+        }
+        pump();
+    }
+
+    private void resetCounters() {
+        filesTotal = filesDone = filesSkipped = filesFailed = 0;
+        bytesTotal = bytesCompleted = 0;
+        startedAtMs = -1;
+    }
+
+    /**
+     * Envia o próximo pedido se nenhum estiver em andamento; pula arquivos já baixados.
+     */
+    private void pump() {
+        List<Runnable> events = new ArrayList<>();
+        synchronized (this) {
+            while (inFlight.isEmpty() && !pending.isEmpty()) {
+                Task task = pending.poll();
+                DeviceFileCatalog.Entry entry = task.entry;
+
+                if (task.target.exists() && task.target.length() == entry.size) {
+                    filesSkipped++;
+                    events.add(() -> listener.onFileDownloaded(entry.name, task.target, true));
+                    continue;
+                }
+                // O comando do dispositivo não aceita offset: um .part antigo é recomeçado
+                if (task.part.exists() && !task.part.delete()) {
+                    Log.w(TAG, "Não foi possível apagar download incompleto: " + task.part);
+                }
+
+                camWrapper.SetGPCamSetDownloadPath(task.part.getAbsolutePath());
+                int result = camWrapper.GPCamSendGetFileRawdata(entry.index);
+                if (result != 0) {
+                    filesFailed++;
+                    events.add(() -> listener.onFileFailed(entry.name, "GPCamSendGetFileRawdata retornou " + result));
+                    continue;
+                }
+                Log.d(TAG, "Download solicitado: " + entry.name + " (índice " + entry.index + ")");
+                task.lastGrowthMs = SystemClock.elapsedRealtime();
+                if (startedAtMs < 0) startedAtMs = task.lastGrowthMs;
+                bytesTotal += entry.size;
+                inFlight.put(task.part.getAbsolutePath(), task);
+            }
+            if (!events.isEmpty()) saveState();
+        }
+        for (Runnable event : events) event.run();
+        finishIfIdle();
+    }
+
+    /**
+     * Conclusão reportada pelo dispositivo. Retorna false se o caminho não
+     * pertence à fila.
+     */
+    boolean onDownloadFinished(String path) {
+        Task task;
+        synchronized (this) {
+            task = inFlight.remove(path);
+            if (task == null) return false;
+            bytesCompleted += task.entry.size;
+            filesDone++;
+            saveState();
+        }
+        File target = task.target;
+        if (target.exists()) target.delete();
+        if (task.part.renameTo(target)) {
+            listener.onFileDownloaded(task.entry.name, target, false);
+        } else {
+            listener.onFileFailed(task.entry.name, "Falha ao renomear " + task.part.getName());
+        }
+        pump();
+        return true;
+    }
+
+    /**
+     * Erro reportado pelo dispositivo. Retorna false se o caminho não pertence
+     * à fila.
+     */
+    boolean onDownloadFailed(String path, String reason) {
+        Task task;
+        synchronized (this) {
+            task = inFlight.remove(path);
+            if (task == null) return false;
+            bytesTotal -= task.entry.size;
+            filesFailed++;
+            saveState();
+        }
+        listener.onFileFailed(task.entry.name, reason);
+        pump();
+        return true;
+    }
+
+    /**
+     * Erro reportado sem caminho: atribuído ao download em andamento.
+     */
+    boolean onDownloadFailed(String reason) {
+        String path;
+        synchronized (this) {
+            if (inFlight.size() != 1) return false;
+            path = inFlight.keySet().iterator().next();
+        }
+        return onDownloadFailed(path, reason);
+    }
+
+    /**
+     * Esvazia a fila; os downloads em andamento terminam normalmente.
+     */
+    synchronized void cancelPending() {
+        filesTotal -= pending.size();
+        pending.clear();
+        saveState();
+    }
+
+    /**
+     * Nomes que ficaram pendentes de uma sessão anterior.
+     */
+    List<String> loadPendingNames() {
+        List<String> names = new ArrayList<>();
+        if (!stateFile.exists()) return names;
+        try (BufferedReader reader = new BufferedReader(new FileReader(stateFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) names.add(line);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Erro lendo fila de downloads pendente", e);
+        }
+        return names;
+    }
+
+    private void saveState() {
+        if (pending.isEmpty() && inFlight.isEmpty()) {
+            stateFile.delete();
+            return;
+        }
+        try (Writer writer = new BufferedWriter(new FileWriter(stateFile))) {
+            for (Task task : inFlight.values()) {
+                writer.write(task.entry.name);
+                writer.write('\n');
+            }
+            for (Task task : pending) {
+                writer.write(task.entry.name);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Erro gravando fila de downloads", e);
+        }
+    }
+
+    private void startTicker() {
+        if (ticking) return;
+        ticking = true;
+        handler.postDelayed(this, PROGRESS_INTERVAL_MS);
+    }
+
+    @Override
+    public void run() {
+        long now = SystemClock.elapsedRealtime();
+        List<Task> stalled = new ArrayList<>();
+        Progress progress;
+        synchronized (this) {
+            if (!ticking) return;
+            for (Task task : inFlight.values()) {
+                long length = task.part.length();
+                if (length != task.lastLength) {
+                    task.lastLength = length;
+                    task.lastGrowthMs = now;
+                } else if (now - task.lastGrowthMs > STALL_TIMEOUT_MS) {
+                    stalled.add(task);
+                }
+            }
+            progress = buildProgress(now);
+        }
+        for (Task task : stalled) {
+            Log.w(TAG, "Download parado há " + STALL_TIMEOUT_MS + " ms: " + task.entry.name);
+            onDownloadFailed(task.part.getAbsolutePath(), "Sem progresso do dispositivo");
+        }
+        listener.onProgress(progress);
+
+        synchronized (this) {
+            if (ticking) handler.postDelayed(this, PROGRESS_INTERVAL_MS);
+        }
+    }
+
+    private Progress buildProgress(long now) {
+        long bytesDone = bytesCompleted;
+        for (Task task : inFlight.values()) {
+            bytesDone += Math.min(task.part.length(), task.entry.size);
+        }
+        // Tamanho dos que ainda vão ser pedidos entra na estimativa
+        long bytesRemaining = bytesTotal - bytesDone;
+        for (Task task : pending) bytesRemaining += task.entry.size;
+
+        double seconds = startedAtMs < 0 ? 0 : (now - startedAtMs) / 1000.0;
+        double bytesPerSecond = seconds > 0 ? bytesDone / seconds : 0;
+        long eta = bytesPerSecond > 0 ? Math.round(bytesRemaining / bytesPerSecond) : -1;
+        return new Progress(filesTotal, filesDone, filesSkipped, filesFailed,
+                bytesDone + bytesRemaining, bytesDone, bytesPerSecond / (1024 * 1024), eta);
+    }
+
+    private void finishIfIdle() {
+        Progress progress;
+        synchronized (this) {
+            if (!ticking || isActive()) return;
+            ticking = false;
+            handler.removeCallbacks(this);
+            progress = buildProgress(SystemClock.elapsedRealtime());
+        }
+        Log.i(TAG, String.format(Locale.US,
+                "Fila concluída: %d baixados, %d já presentes, %d com erro (%.2f MB/s)",
+                progress.filesDone, progress.filesSkipped, progress.filesFailed, progress.megabytesPerSecond));
+        listener.onQueueFinished(progress);
+    }
+}
@@ -0,0 +1,334 @@
+package com.bsafe.videolaryngoscope;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Process;
+import android.util.Log;
+
+import com.bsafe.videolaryngoscope.stream.FrameBuffer;
+import com.bsafe.videolaryngoscope.stream.JpegUtils;
+import com.bsafe.videolaryngoscope.stream.StreamMetrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Estágio de decodificação JPEG fora da main thread.
+ *
+ * Funciona como uma caixa postal de um só lugar: {@link #submit(FrameBuffer)}
+ * substitui o frame pendente, de modo que a thread decodifica sempre o frame
+ * mais novo e os atrasados são descartados (e contados). O bitmap pronto vai
+ * para o {@link FrameRenderer} atual, que pode ser trocado em tempo de execução.
+ *
+ * A decodificação reaproveita um anel de bitmaps ({@link BitmapPool}): o
+ * renderer devolve cada bitmap com {@link #releaseBitmap(Bitmap)} assim que
+ * ele deixar de ser exibido, e avisa com {@link #onFrameDisplayed(Bitmap)}
+ * quando o exibe, para a medição de latência em {@link StreamMetrics}.
+ *
+ * O JPEG é decodificado no tamanho em que será exibido: {@code inSampleSize}
+ * (escala na IDCT do libjpeg, sem custo de redimensionar depois) reduz o frame
+ * ao tamanho da view informado em {@link #setTargetSize(int, int)}, e com zoom
+ * digital ({@link #setZoom(float)}) só o trecho central visível é decodificado,
+ * via {@link BitmapRegionDecoder}.
+ */
+public final class FrameDecoder {
+
+    private static final String TAG = "FrameDecoder";
+
+    // Fila cheia do VsyncFramePresenter + exibido + aguardando upload na GL + em
+    // decodificação (criados sob demanda). Com menos, uma rajada esgotaria o anel e
+    // o frame novo seria descartado antes de decodificar, em vez do mais antigo da fila
+    private static final int BITMAP_POOL_SIZE = VsyncFramePresenter.QUEUE_CAPACITY + 3;
+
+    public static final float MAX_ZOOM = 4f;
+
+    private final BitmapPool bitmapPool = new BitmapPool(BITMAP_POOL_SIZE);
+    private final StreamMetrics metrics;
+
+    // Chegada do primeiro pacote de cada bitmap ainda não exibido (protegido por stampLock)
+    private final Object stampLock = new Object();
+    private final Bitmap[] stampedBitmaps = new Bitmap[BITMAP_POOL_SIZE + 1];
+    private final long[] stampNanos = new long[BITMAP_POOL_SIZE + 1];
+    private int nextStamp;
+
+    // Usados apenas pela thread de decodificação
+    private final BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+    private final int[] frameSize = new int[2];
+    private final Rect region = new Rect();
+
+    // Tamanho da view de exibição (0 = desconhecido: tamanho original) e zoom digital
+    private volatile int targetWidth;
+    private volatile int targetHeight;
+    private volatile float zoom = 1f;
+
+    private final AtomicReference<FrameBuffer> pendingFrame = new AtomicReference<>();
+    private final AtomicLong decodedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    private volatile FrameRenderer renderer;
+    private volatile boolean running = false;
+    private Thread decodeThread;
+
+    public FrameDecoder(StreamMetrics metrics) {
+        this.metrics = metrics;
+        decodeOptions.inMutable = true;
+        decodeOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Troca o destino dos bitmaps. O renderer anterior deve ser liberado por quem chama.
+     */
+    public void setRenderer(FrameRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Tamanho (px) da view que exibe os frames; os próximos são decodificados
+     * com a menor amostragem que ainda preenche essa área.
+     */
+    public void setTargetSize(int width, int height) {
+        targetWidth = width;
+        targetHeight = height;
+    }
+
+    /**
+     * Zoom digital centralizado, de 1 a {@link #MAX_ZOOM}. Cada valor muda o
+     * tamanho dos bitmaps do anel; quem chama deve variar o zoom em passos.
+     */
+    public void setZoom(float zoom) {
+        this.zoom = Math.max(1f, Math.min(MAX_ZOOM, zoom));
+    }
+
+    public float getZoom() {
+        return zoom;
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+        decodeThread = new Thread(this::decodeLoop);
+        decodeThread.setName("FrameDecoder");
+        decodeThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (decodeThread != null) {
+            LockSupport.unpark(decodeThread);
+            try {
+                decodeThread.join(1000);
+            } catch (InterruptedException ignored) {}
+            decodeThread = null;
+        }
+
+        FrameBuffer leftover = pendingFrame.getAndSet(null);
+        if (leftover != null) {
+            leftover.release();
+        }
+        bitmapPool.clear();
+    }
+
+    /**
+     * Devolve ao anel um bitmap que a view não exibe mais.
+     */
+    public void releaseBitmap(Bitmap bitmap) {
+        bitmapPool.release(bitmap);
+    }
+
+    /**
+     * Conta um bitmap decodificado que o renderer substituiu antes de exibir.
+     */
+    void onFrameDropped() {
+        droppedFrames.incrementAndGet();
+        metrics.onFrameDropped(StreamMetrics.DropReason.SUPERSEDED);
+    }
+
+    /**
+     * O renderer passou a exibir {@code bitmap}. Registra a latência desde a
+     * chegada do primeiro pacote; reexibições do mesmo bitmap não contam.
+     */
+    void onFrameDisplayed(Bitmap bitmap) {
+        long firstPacketNanos = -1;
+        synchronized (stampLock) {
+            for (int i = 0; i < stampedBitmaps.length; i++) {
+                if (stampedBitmaps[i] == bitmap) {
+                    stampedBitmaps[i] = null;
+                    firstPacketNanos = stampNanos[i];
+                    break;
+                }
+            }
+        }
+        if (firstPacketNanos >= 0) {
+            metrics.onFrameDisplayed(firstPacketNanos, System.nanoTime());
+        }
+    }
+
+    private void stamp(Bitmap bitmap, long firstPacketNanos) {
+        synchronized (stampLock) {
+            stampedBitmaps[nextStamp] = bitmap;
+            stampNanos[nextStamp] = firstPacketNanos;
+            nextStamp = (nextStamp + 1) % stampedBitmaps.length;
+        }
+    }
+
+    /**
+     * Entrega um frame para decodificação. A referência passa para o decoder.
+     * Pode ser chamado de qualquer thread.
+     */
+    public void submit(FrameBuffer frame) {
+        if (!running) {
+            frame.release();
+            return;
+        }
+
+        FrameBuffer stale = pendingFrame.getAndSet(frame);
+        if (stale != null) {
+            stale.release();
+            droppedFrames.incrementAndGet();
+            metrics.onFrameDropped(StreamMetrics.DropReason.SUPERSEDED);
+        }
+        LockSupport.unpark(decodeThread);
+    }
+
+    private void decodeLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        Log.d(TAG, "Decodificador iniciado");
+
+        while (running) {
+            FrameBuffer frame = pendingFrame.getAndSet(null);
+            if (frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            Bitmap bitmap = null;
+            long firstPacketNanos = frame.getTimestampNanos();
+            try {
+                bitmap = decode(frame);
+            } catch (Exception e) {
+                Log.e(TAG, "Erro decodificando frame", e);
+                metrics.onFrameDropped(StreamMetrics.DropReason.DECODE_ERROR);
+            } finally {
+                frame.release();
+            }
+
+            if (bitmap != null) {
+                decodedFrames.incrementAndGet();
+                stamp(bitmap, firstPacketNanos);
+                FrameRenderer target = renderer;
+                if (target != null) {
+                    target.onFrameReady(bitmap);
+                } else {
+                    bitmapPool.release(bitmap);
+                }
+            }
+        }
+
+        Log.d(TAG, "Decodificador finalizado. Decodificados: " + decodedFrames.get()
+                + ", descartados: " + droppedFrames.get());
+    }
+
+    private Bitmap decode(FrameBuffer frame) throws IOException {
+        byte[] data = frame.getData();
+        int length = frame.getLength();
+
+        if (!JpegUtils.readSize(data, length, frameSize)) {
+            // Header atípico: decodifica sem reaproveitar
+            return checkDecoded(BitmapFactory.decodeByteArray(data, 0, length));
+        }
+
+        // Trecho visível: o frame inteiro ou, com zoom, o centro ampliado
+        int width = frameSize[0];
+        int height = frameSize[1];
+        float zoom = this.zoom;
+        boolean zoomed = zoom > 1f;
+        int regionWidth = zoomed ? Math.max(1, Math.round(width / zoom)) : width;
+        int regionHeight = zoomed ? Math.max(1, Math.round(height / zoom)) : height;
+        int sampleSize = sampleSizeFor(regionWidth, regionHeight, targetWidth, targetHeight);
+        if (zoomed) {
+            // Região múltipla da amostragem: o tamanho decodificado é exato
+            regionWidth -= regionWidth % sampleSize;
+            regionHeight -= regionHeight % sampleSize;
+            int left = (width - regionWidth) / 2;
+            int top = (height - regionHeight) / 2;
+            region.set(left, top, left + regionWidth, top + regionHeight);
+        } else {
+            // Sem região, só divisores exatos, para o bitmap do anel servir sem ajuste
+            while (sampleSize > 1 && (width % sampleSize != 0 || height % sampleSize != 0)) {
+                sampleSize /= 2;
+            }
+        }
+
+        Bitmap target = bitmapPool.acquire(regionWidth / sampleSize, regionHeight / sampleSize);
+        if (target == null) {
+            // Todos os bitmaps exibidos ou prontos: a exibição está atrasada
+            droppedFrames.incrementAndGet();
+            metrics.onFrameDropped(StreamMetrics.DropReason.SUPERSEDED);
+            return null;
+        }
+
+        decodeOptions.inBitmap = target;
+        decodeOptions.inSampleSize = sampleSize;
+        try {
+            Bitmap bitmap;
+            if (zoomed) {
+                BitmapRegionDecoder regionDecoder = BitmapRegionDecoder.newInstance(data, 0, length, false);
+                try {
+                    bitmap = regionDecoder.decodeRegion(region, decodeOptions);
+                } finally {
+                    regionDecoder.recycle();
+                }
+            } else {
+                bitmap = BitmapFactory.decodeByteArray(data, 0, length, decodeOptions);
+            }
+            if (bitmap != target) {
+                bitmapPool.release(target);
+            }
+            return checkDecoded(bitmap);
+        } catch (IllegalArgumentException | IOException e) {
+            // inBitmap incompatível com o JPEG recebido, ou header rejeitado
+            bitmapPool.release(target);
+            throw e;
+        } finally {
+            decodeOptions.inBitmap = null;
+        }
+    }
+
+    /**
+     * Maior potência de 2 que, com a imagem ajustada à view (aspect-fit), não
+     * fica abaixo da resolução exibida. 1 se o tamanho da view é desconhecido.
+     */
+    static int sampleSizeFor(int width, int height, int viewWidth, int viewHeight) {
+        if (viewWidth <= 0 || viewHeight <= 0) return 1;
+
+        // Aspect-fit: o eixo mais justo define a escala de exibição
+        float ratio = Math.max((float) width / viewWidth, (float) height / viewHeight);
+        int sampleSize = 1;
+        while (sampleSize * 2 <= ratio) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private Bitmap checkDecoded(Bitmap bitmap) {
+        if (bitmap == null) {
+            metrics.onFrameDropped(StreamMetrics.DropReason.DECODE_ERROR);
+        }
+        return bitmap;
+    }
+
+    public long getDecodedFrameCount() {
+        return decodedFrames.get();
+    }
+
+    /**
+     * Frames descartados por estarem desatualizados, antes ou depois da decodificação.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrames.get();
+    }
+}
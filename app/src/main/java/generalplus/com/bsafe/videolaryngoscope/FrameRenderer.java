@@ -0,0 +1,32 @@
+package com.bsafe.videolaryngoscope;
+
+import android.graphics.Bitmap;
+
+/**
+ * Destino dos bitmaps decodificados pelo {@link FrameDecoder}.
+ *
+ * Os bitmaps pertencem ao anel do decoder: a implementação deve devolvê-los com
+ * {@link FrameDecoder#releaseBitmap(Bitmap)} assim que não forem mais exibidos.
+ */
+public interface FrameRenderer {
+
+    /**
+     * Recebe o bitmap mais recente. Chamado na thread de decodificação.
+     */
+    void onFrameReady(Bitmap bitmap);
+
+    /**
+     * Passa a exibir frames. Chamado na main thread ao selecionar este modo.
+     */
+    void attach();
+
+    void onResume();
+
+    void onPause();
+
+    /**
+     * Deixa de exibir frames e devolve os bitmaps em posse do renderer.
+     * Chamado na main thread.
+     */
+    void detach();
+}
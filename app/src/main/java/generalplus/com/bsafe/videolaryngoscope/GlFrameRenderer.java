@@ -0,0 +1,252 @@
+package com.bsafe.videolaryngoscope;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Renderização via OpenGL ES 2.0 no {@code gl_surface_view}.
+ *
+ * O bitmap é enviado como textura na thread de render do GLSurfaceView e o
+ * ajuste de proporção (aspect-fit) é feito no vertex shader, então a main
+ * thread não participa do caminho de cada frame.
+ */
+public final class GlFrameRenderer implements FrameRenderer, GLSurfaceView.Renderer {
+
+    private static final String TAG = "GlFrameRenderer";
+
+    private static final String VERTEX_SHADER =
+            "attribute vec2 aPosition;\n" +
+            "attribute vec2 aTexCoord;\n" +
+            "uniform vec2 uScale;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = vec4(aPosition * uScale, 0.0, 1.0);\n" +
+            "    vTexCoord = aTexCoord;\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "varying vec2 vTexCoord;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(uTexture, vTexCoord);\n" +
+            "}\n";
+
+    // x, y, s, t (triangle strip)
+    private static final float[] QUAD = {
+            -1f, -1f, 0f, 1f,
+             1f, -1f, 1f, 1f,
+            -1f,  1f, 0f, 0f,
+             1f,  1f, 1f, 0f,
+    };
+
+    private final GLSurfaceView surfaceView;
+    private final FrameDecoder decoder;
+    private final FloatBuffer quadBuffer;
+
+    private final AtomicReference<Bitmap> pendingBitmap = new AtomicReference<>();
+    private final Object displayedLock = new Object();
+    private Bitmap displayedBitmap; // Protegido por displayedLock
+    private volatile boolean detached = false;
+
+    // Estado GL (apenas thread de render)
+    private int program;
+    private int positionHandle;
+    private int texCoordHandle;
+    private int scaleHandle;
+    private int textureId;
+    private int textureWidth;
+    private int textureHeight;
+    private int viewWidth;
+    private int viewHeight;
+
+    public GlFrameRenderer(GLSurfaceView surfaceView, FrameDecoder decoder) {
+        this.surfaceView = surfaceView;
+        this.decoder = decoder;
+
+        quadBuffer = ByteBuffer.allocateDirect(QUAD.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        quadBuffer.put(QUAD).position(0);
+
+        surfaceView.setEGLContextClientVersion(2);
+        surfaceView.setPreserveEGLContextOnPause(true);
+        surfaceView.setRenderer(this);
+        surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+    }
+
+    @Override
+    public void onFrameReady(Bitmap bitmap) {
+        if (detached) {
+            decoder.releaseBitmap(bitmap);
+            return;
+        }
+
+        Bitmap stale = pendingBitmap.getAndSet(bitmap);
+        if (stale != null) {
+            // A thread de render ainda não enviou o anterior
+            decoder.releaseBitmap(stale);
+            decoder.onFrameDropped();
+        }
+        surfaceView.requestRender();
+    }
+
+    @Override
+    public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+        program = createProgram();
+        positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
+        texCoordHandle = GLES20.glGetAttribLocation(program, "aTexCoord");
+        scaleHandle = GLES20.glGetUniformLocation(program, "uScale");
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        textureId = textures[0];
+        textureWidth = 0;
+        textureHeight = 0;
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        GLES20.glClearColor(0f, 0f, 0f, 1f);
+
+        // Contexto recriado: reenvia o último frame na próxima renderização
+        synchronized (displayedLock) {
+            if (displayedBitmap != null && pendingBitmap.compareAndSet(null, displayedBitmap)) {
+                displayedBitmap = null;
+            }
+        }
+    }
+
+    @Override
+    public void onSurfaceChanged(GL10 unused, int width, int height) {
+        viewWidth = width;
+        viewHeight = height;
+        GLES20.glViewport(0, 0, width, height);
+    }
+
+    @Override
+    public void onDrawFrame(GL10 unused) {
+        Bitmap bitmap = pendingBitmap.getAndSet(null);
+        if (bitmap != null) {
+            upload(bitmap);
+        }
+
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        if (textureWidth == 0 || viewWidth == 0 || viewHeight == 0) return;
+
+        // Aspect-fit: reduz o eixo que excede a proporção da view
+        float viewAspect = (float) viewWidth / viewHeight;
+        float frameAspect = (float) textureWidth / textureHeight;
+        float scaleX = 1f;
+        float scaleY = 1f;
+        if (frameAspect > viewAspect) {
+            scaleY = viewAspect / frameAspect;
+        } else {
+            scaleX = frameAspect / viewAspect;
+        }
+
+        GLES20.glUseProgram(program);
+        GLES20.glUniform2f(scaleHandle, scaleX, scaleY);
+
+        quadBuffer.position(0);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 16, quadBuffer);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        quadBuffer.position(2);
+        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 16, quadBuffer);
+        GLES20.glEnableVertexAttribArray(texCoordHandle);
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    }
+
+    private void upload(Bitmap bitmap) {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        if (bitmap.getWidth() != textureWidth || bitmap.getHeight() != textureHeight) {
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+            textureWidth = bitmap.getWidth();
+            textureHeight = bitmap.getHeight();
+        } else {
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap);
+        }
+        decoder.onFrameDisplayed(bitmap);
+
+        // A textura tem sua própria cópia; o bitmap anterior volta ao anel
+        synchronized (displayedLock) {
+            Bitmap previous = displayedBitmap;
+            displayedBitmap = bitmap;
+            if (previous != null && previous != bitmap) {
+                decoder.releaseBitmap(previous);
+            }
+        }
+    }
+
+    @Override
+    public void attach() {
+        detached = false;
+    }
+
+    @Override
+    public void onResume() {
+        surfaceView.onResume();
+    }
+
+    @Override
+    public void onPause() {
+        surfaceView.onPause();
+    }
+
+    @Override
+    public void detach() {
+        detached = true;
+        decoder.releaseBitmap(pendingBitmap.getAndSet(null));
+        synchronized (displayedLock) {
+            decoder.releaseBitmap(displayedBitmap);
+            displayedBitmap = null;
+        }
+    }
+
+    private static int createProgram() {
+        int vertexShader = compileShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fragmentShader = compileShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            Log.e(TAG, "Erro linkando programa: " + GLES20.glGetProgramInfoLog(program));
+        }
+        return program;
+    }
+
+    private static int compileShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            Log.e(TAG, "Erro compilando shader: " + GLES20.glGetShaderInfoLog(shader));
+        }
+        return shader;
+    }
+}
@@ -0,0 +1,101 @@
+package com.bsafe.videolaryngoscope;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.ImageView;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renderização via {@link ImageView#setImageBitmap(Bitmap)} na main thread.
+ *
+ * Modo de compatibilidade para aparelhos sem OpenGL ES 2.0 utilizável. O bitmap
+ * pronto segue a regra "o mais novo vence" até a main thread consumi-lo, e um
+ * único Runnable pré-alocado é postado por vez. Entregue na main thread (pelo
+ * {@link VsyncFramePresenter}), o bitmap é exibido ainda no mesmo vsync.
+ */
+public final class ImageViewFrameRenderer implements FrameRenderer {
+
+    private final ImageView imageView;
+    private final Handler mainHandler;
+    private final FrameDecoder decoder;
+
+    private final AtomicReference<Bitmap> readyBitmap = new AtomicReference<>();
+    private final AtomicBoolean presentPosted = new AtomicBoolean(false);
+    private final Runnable presentRunnable = this::present;
+
+    private volatile boolean detached = false;
+    private Bitmap displayedBitmap; // Apenas main thread
+
+    public ImageViewFrameRenderer(ImageView imageView, Handler mainHandler, FrameDecoder decoder) {
+        this.imageView = imageView;
+        this.mainHandler = mainHandler;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public void onFrameReady(Bitmap bitmap) {
+        if (detached) {
+            decoder.releaseBitmap(bitmap);
+            return;
+        }
+
+        Bitmap stale = readyBitmap.getAndSet(bitmap);
+        if (stale != null) {
+            // A main thread ainda não exibiu o anterior
+            decoder.releaseBitmap(stale);
+            decoder.onFrameDropped();
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            present();
+        } else if (presentPosted.compareAndSet(false, true)) {
+            mainHandler.post(presentRunnable);
+        }
+    }
+
+    private void present() {
+        presentPosted.set(false);
+        Bitmap bitmap = readyBitmap.getAndSet(null);
+        if (bitmap == null) return;
+
+        if (detached) {
+            decoder.releaseBitmap(bitmap);
+            return;
+        }
+
+        Bitmap previous = displayedBitmap;
+        displayedBitmap = bitmap;
+        imageView.setImageBitmap(bitmap);
+        decoder.onFrameDisplayed(bitmap);
+
+        // A view não exibe mais o anterior: volta para o anel de reuso
+        if (previous != null && previous != bitmap) {
+            decoder.releaseBitmap(previous);
+        }
+    }
+
+    @Override
+    public void attach() {
+        detached = false;
+    }
+
+    @Override
+    public void onResume() {}
+
+    @Override
+    public void onPause() {}
+
+    @Override
+    public void detach() {
+        detached = true;
+        mainHandler.removeCallbacks(presentRunnable);
+        presentPosted.set(false);
+
+        imageView.setImageBitmap(null);
+        decoder.releaseBitmap(readyBitmap.getAndSet(null));
+        decoder.releaseBitmap(displayedBitmap);
+        displayedBitmap = null;
+    }
+}
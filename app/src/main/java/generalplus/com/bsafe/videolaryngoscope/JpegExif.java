@@ -0,0 +1,129 @@
+package com.bsafe.videolaryngoscope;
+
+import com.bsafe.videolaryngoscope.stream.JpegUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Grava um JPEG recebido acrescentando um segmento EXIF (APP1), sem
+ * decodificar nem recomprimir a imagem.
+ *
+ * O segmento contém Orientation, DateTime, DateTimeOriginal e
+ * SubSecTimeOriginal e é inserido logo após o SOI (ou após o APP0/JFIF, se
+ * houver). JPEGs que já trazem EXIF são gravados sem alteração.
+ */
+public final class JpegExif {
+
+    public static final int ORIENTATION_NORMAL = 1;
+
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_SUBSEC_TIME_ORIGINAL = 0x9291;
+
+    // Layout do TIFF (offsets relativos ao "MM")
+    private static final int IFD0_OFFSET = 8;
+    private static final int IFD0_ENTRIES = 3;
+    private static final int DATE_OFFSET = IFD0_OFFSET + 2 + IFD0_ENTRIES * 12 + 4;
+    private static final int DATE_LENGTH = 20; // "yyyy:MM:dd HH:mm:ss\0"
+    private static final int EXIF_IFD_OFFSET = DATE_OFFSET + DATE_LENGTH;
+    private static final int EXIF_IFD_ENTRIES = 2;
+    private static final int DATE_ORIGINAL_OFFSET = EXIF_IFD_OFFSET + 2 + EXIF_IFD_ENTRIES * 12 + 4;
+    private static final int TIFF_SIZE = DATE_ORIGINAL_OFFSET + DATE_LENGTH;
+
+    private JpegExif() {}
+
+    /**
+     * Escreve {@code jpeg[0..length)} em {@code out} com o EXIF inserido.
+     */
+    public static void write(OutputStream out, byte[] jpeg, int length,
+                             int orientation, long timeMillis) throws IOException {
+        if (length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != JpegUtils.MARKER_SOI) {
+            throw new IOException("JPEG inválido");
+        }
+
+        int insertAt = 2;
+        if (isSegment(jpeg, length, insertAt, MARKER_APP0)) {
+            insertAt += 2 + segmentLength(jpeg, insertAt);
+        }
+        if (insertAt > length || isSegment(jpeg, length, insertAt, MARKER_APP1)) {
+            // Já tem EXIF (ou o APP0 está truncado): grava como recebido
+            out.write(jpeg, 0, length);
+            return;
+        }
+
+        out.write(jpeg, 0, insertAt);
+        out.write(buildSegment(orientation, timeMillis));
+        out.write(jpeg, insertAt, length - insertAt);
+    }
+
+    private static boolean isSegment(byte[] jpeg, int length, int offset, int marker) {
+        return offset + 4 <= length
+                && (jpeg[offset] & 0xFF) == 0xFF
+                && (jpeg[offset + 1] & 0xFF) == marker;
+    }
+
+    private static int segmentLength(byte[] jpeg, int offset) {
+        return ((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF);
+    }
+
+    private static byte[] buildSegment(int orientation, long timeMillis) {
+        Date date = new Date(timeMillis);
+        byte[] dateTime = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US)
+                .format(date).getBytes(StandardCharsets.US_ASCII);
+        byte[] subSec = String.format(Locale.US, "%03d", timeMillis % 1000)
+                .getBytes(StandardCharsets.US_ASCII);
+
+        int segmentLength = 2 + EXIF_HEADER.length + TIFF_SIZE;
+        ByteBuffer b = ByteBuffer.allocate(2 + segmentLength); // Big-endian ("MM")
+        b.put((byte) 0xFF).put((byte) MARKER_APP1).putShort((short) segmentLength);
+        b.put(EXIF_HEADER);
+
+        int tiffStart = b.position();
+        b.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(IFD0_OFFSET);
+
+        // IFD0 (tags em ordem crescente)
+        b.putShort((short) IFD0_ENTRIES);
+        putEntry(b, TAG_ORIENTATION, TYPE_SHORT, 1, orientation << 16);
+        putEntry(b, TAG_DATE_TIME, TYPE_ASCII, DATE_LENGTH, DATE_OFFSET);
+        putEntry(b, TAG_EXIF_IFD, TYPE_LONG, 1, EXIF_IFD_OFFSET);
+        b.putInt(0);
+        b.put(dateTime).put((byte) 0);
+
+        // Exif IFD
+        b.putShort((short) EXIF_IFD_ENTRIES);
+        putEntry(b, TAG_DATE_TIME_ORIGINAL, TYPE_ASCII, DATE_LENGTH, DATE_ORIGINAL_OFFSET);
+        putEntry(b, TAG_SUBSEC_TIME_ORIGINAL, TYPE_ASCII, 4,
+                (subSec[0] << 24) | (subSec[1] << 16) | (subSec[2] << 8));
+        b.putInt(0);
+        b.put(dateTime).put((byte) 0);
+
+        if (b.position() - tiffStart != TIFF_SIZE) {
+            throw new IllegalStateException("Layout EXIF inconsistente");
+        }
+        return b.array();
+    }
+
+    /**
+     * Valores de até 4 bytes ficam no próprio campo, alinhados à esquerda.
+     */
+    private static void putEntry(ByteBuffer b, int tag, int type, int count, int valueOrOffset) {
+        b.putShort((short) tag).putShort((short) type).putInt(count).putInt(valueOrOffset);
+    }
+}
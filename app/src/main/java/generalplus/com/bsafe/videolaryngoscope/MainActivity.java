@@ -9,6 +9,7 @@ import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.net.NetworkRequest;
 import android.net.wifi.WifiNetworkSpecifier;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.Button;
@@ -19,6 +20,9 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
@@ -29,7 +33,7 @@ public class MainActivity extends AppCompatActivity {
 
     private static final String WIFI_SSID = "Simple-a09f10fdc3fc";
     private static final String DEVICE_STATIC_IP = "192.168.100.1";
-    private static final int REQUEST_CODE_LOCATION_PERMISSION = 1;
+    private static final int REQUEST_CODE_PERMISSIONS = 1;
     private static final int CONNECTION_TIMEOUT_MS = 30000; // Timeout de 30 segundos
 
     @Override
@@ -56,37 +60,60 @@ public class MainActivity extends AppCompatActivity {
             Log.e(TAG, "Erro ao obter versão do app", e);
         }
 
-        connectButton.setOnClickListener(v -> checkAndRequestLocationPermission());
+        connectButton.setOnClickListener(v -> checkAndRequestPermissions());
     }
 
-    private void checkAndRequestLocationPermission() {
+    private void checkAndRequestPermissions() {
+        List<String> missing = new ArrayList<>();
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
                 != PackageManager.PERMISSION_GRANTED) {
-            Log.d(TAG, "Solicitando permissão de localização");
+            missing.add(Manifest.permission.ACCESS_FINE_LOCATION);
+        }
+        // API 33+: sem ela a notificação do StreamService (stream/gravação em background) não aparece
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            missing.add(Manifest.permission.POST_NOTIFICATIONS);
+        }
+
+        if (missing.isEmpty()) {
+            initiateWifiConnection();
+        } else {
+            Log.d(TAG, "Solicitando permissões: " + missing);
             ActivityCompat.requestPermissions(
                     this,
-                    new String[]{Manifest.permission.ACCESS_FINE_LOCATION},
-                    REQUEST_CODE_LOCATION_PERMISSION
+                    missing.toArray(new String[0]),
+                    REQUEST_CODE_PERMISSIONS
             );
-        } else {
-            initiateWifiConnection();
         }
     }
 
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
-        if (requestCode == REQUEST_CODE_LOCATION_PERMISSION) {
-            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                Log.d(TAG, "Permissão de localização concedida");
-                initiateWifiConnection();
-            } else {
-                Log.w(TAG, "Permissão de localização negada");
-                Toast.makeText(this,
-                        "A permissão de localização é necessária para encontrar a rede Wi-Fi.",
-                        Toast.LENGTH_LONG).show();
+        if (requestCode != REQUEST_CODE_PERMISSIONS) return;
+
+        boolean locationGranted = ContextCompat.checkSelfPermission(this,
+                Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+            boolean granted = grantResults[i] == PackageManager.PERMISSION_GRANTED;
+            if (Manifest.permission.ACCESS_FINE_LOCATION.equals(permissions[i])) {
+                locationGranted = granted;
+            } else if (Manifest.permission.POST_NOTIFICATIONS.equals(permissions[i]) && !granted) {
+                // Não impede a conexão; só a notificação do serviço fica oculta
+                Log.w(TAG, "Permissão de notificações negada");
             }
         }
+
+        if (locationGranted) {
+            Log.d(TAG, "Permissão de localização concedida");
+            initiateWifiConnection();
+        } else {
+            Log.w(TAG, "Permissão de localização negada");
+            Toast.makeText(this,
+                    "A permissão de localização é necessária para encontrar a rede Wi-Fi.",
+                    Toast.LENGTH_LONG).show();
+        }
     }
 
     private void initiateWifiConnection() {
@@ -157,6 +184,8 @@ public class MainActivity extends AppCompatActivity {
 
         Intent intent = new Intent(MainActivity.this, CameraActivity.class);
         intent.putExtra("DEVICE_IP_ADDRESS", DEVICE_STATIC_IP);
+        // Início da medição do tempo até o primeiro frame exibido
+        intent.putExtra(CameraActivity.EXTRA_LAUNCH_NANOS, System.nanoTime());
         startActivity(intent);
     }
 
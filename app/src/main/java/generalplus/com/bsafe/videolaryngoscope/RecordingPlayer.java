@@ -0,0 +1,383 @@
+package com.bsafe.videolaryngoscope;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.util.Log;
+
+import com.bsafe.videolaryngoscope.stream.MappedRecording;
+import com.bsafe.videolaryngoscope.stream.RecordingIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reprodução de gravações (.avi ou .mjpeg) na cadência original.
+ *
+ * O arquivo é mapeado em memória ({@link MappedRecording}) e cada JPEG é
+ * decodificado direto do mapeamento, em blocos de {@link #DECODE_CHUNK_SIZE}
+ * num buffer reaproveitado: o conteúdo do arquivo não é copiado para o heap.
+ * Uma thread própria abre o arquivo (lendo ou reconstruindo o índice),
+ * decodifica e entrega os bitmaps ao {@link Listener}, seguindo os timestamps
+ * gravados. Suporta busca por posição, passo a passo e avanço rápido de 2 a
+ * {@link #MAX_SPEED}x, que pula frames em vez de acelerar a decodificação; se
+ * a decodificação atrasar, o relógio também pula frames.
+ */
+final class RecordingPlayer {
+
+    private static final String TAG = "RecordingPlayer";
+
+    static final int MAX_SPEED = 8;
+
+    // Exibido + pronto + em decodificação
+    private static final int BITMAP_POOL_SIZE = 3;
+    private static final int DECODE_CHUNK_SIZE = 16 * 1024;
+
+    interface Listener {
+        /** Arquivo aberto; chamado na thread de reprodução antes do primeiro frame. */
+        void onOpened(int frameCount, long durationUs);
+
+        /**
+         * Novo frame, na thread de reprodução. O bitmap deve voltar com
+         * {@link #releaseBitmap(Bitmap)} quando não for mais exibido.
+         */
+        void onFrame(Bitmap bitmap, int frame, long positionUs);
+
+        /** A reprodução parou (pause, passo a passo ou fim do arquivo). */
+        void onPaused(int frame);
+
+        void onError(IOException error);
+    }
+
+    private final File file;
+    private final Listener listener;
+    private final BitmapPool bitmapPool = new BitmapPool(BITMAP_POOL_SIZE);
+
+    // Apenas a thread de reprodução
+    private final BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+    private int frameWidth;
+    private int frameHeight;
+
+    // Comandos (protegidos por lock)
+    private final Object lock = new Object();
+    private boolean playing = false;
+    private int speed = 1;
+    private int requestedFrame = -1;
+    private boolean clockValid = false;
+
+    private volatile RecordingIndex index;
+    private volatile int currentFrame = -1;
+    private volatile int targetWidth;
+    private volatile int targetHeight;
+    private volatile boolean running = false;
+    private Thread playbackThread;
+
+    RecordingPlayer(File file, Listener listener) {
+        this.file = file;
+        this.listener = listener;
+        decodeOptions.inMutable = true;
+        decodeOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        decodeOptions.inTempStorage = new byte[DECODE_CHUNK_SIZE];
+    }
+
+    /**
+     * Abre o arquivo em background e exibe o primeiro frame, pausado.
+     */
+    void start() {
+        if (running) return;
+        running = true;
+        synchronized (lock) {
+            requestedFrame = 0;
+        }
+        playbackThread = new Thread(this::playbackLoop);
+        playbackThread.setName("RecordingPlayer");
+        playbackThread.start();
+    }
+
+    void release() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        if (playbackThread != null) {
+            try {
+                playbackThread.join(1000);
+            } catch (InterruptedException ignored) {}
+            playbackThread = null;
+        }
+        bitmapPool.clear();
+    }
+
+    /**
+     * Tamanho (px) da view; os frames são decodificados com a menor
+     * amostragem que ainda a preenche.
+     */
+    void setTargetSize(int width, int height) {
+        targetWidth = width;
+        targetHeight = height;
+    }
+
+    void releaseBitmap(Bitmap bitmap) {
+        bitmapPool.release(bitmap);
+    }
+
+    void play() {
+        synchronized (lock) {
+            RecordingIndex current = index;
+            if (current != null && currentFrame >= current.getFrameCount() - 1) {
+                requestedFrame = 0; // No fim: recomeça
+            }
+            playing = true;
+            clockValid = false;
+            lock.notifyAll();
+        }
+    }
+
+    void pause() {
+        synchronized (lock) {
+            playing = false;
+            lock.notifyAll();
+        }
+        listener.onPaused(currentFrame);
+    }
+
+    boolean isPlaying() {
+        synchronized (lock) {
+            return playing;
+        }
+    }
+
+    /**
+     * Velocidade de 1 a {@link #MAX_SPEED}: acima de 1 exibe um a cada
+     * {@code speed} frames, na cadência original.
+     */
+    void setSpeed(int speed) {
+        synchronized (lock) {
+            this.speed = Math.max(1, Math.min(MAX_SPEED, speed));
+            clockValid = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Exibe o frame em {@code positionUs} (desde o início da gravação).
+     * Buscas seguidas, como ao arrastar a barra, são agrupadas na mais recente.
+     */
+    void seekTo(long positionUs) {
+        RecordingIndex current = index;
+        if (current == null || current.getFrameCount() == 0) return;
+        requestFrame(current.findFrame(current.getTimestampUs(0) + positionUs));
+    }
+
+    /**
+     * Pausa e avança (ou volta, com {@code delta} negativo) frames.
+     */
+    void step(int delta) {
+        synchronized (lock) {
+            playing = false;
+        }
+        requestFrame(Math.max(0, currentFrame + delta));
+    }
+
+    private void requestFrame(int frame) {
+        synchronized (lock) {
+            requestedFrame = frame;
+            clockValid = false;
+            lock.notifyAll();
+        }
+    }
+
+    int getCurrentFrame() {
+        return currentFrame;
+    }
+
+    private void playbackLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+
+        MappedRecording recording;
+        try {
+            recording = MappedRecording.open(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Erro abrindo " + file.getName(), e);
+            running = false;
+            listener.onError(e);
+            return;
+        }
+
+        RecordingIndex recordingIndex = recording.getIndex();
+        int lastFrame = recordingIndex.getFrameCount() - 1;
+        Log.d(TAG, "Reproduzindo " + file.getName() + ": " + (lastFrame + 1) + " frames"
+                + (recordingIndex.isRebuilt() ? " (índice reconstruído)" : ""));
+        index = recordingIndex;
+        listener.onOpened(lastFrame + 1, recordingIndex.getDurationUs());
+
+        // Relógio: o timestamp anchorUs foi exibido em anchorNanos
+        long anchorNanos = 0;
+        long anchorUs = 0;
+
+        try {
+            while (running && lastFrame >= 0) {
+                int frame;
+                boolean ended = false;
+                synchronized (lock) {
+                    int current = currentFrame;
+                    if (requestedFrame >= 0) {
+                        frame = Math.min(requestedFrame, lastFrame);
+                        requestedFrame = -1;
+                    } else if (playing && current >= lastFrame) {
+                        playing = false;
+                        ended = true;
+                        frame = -1;
+                    } else if (playing) {
+                        if (!clockValid) {
+                            anchorNanos = System.nanoTime();
+                            anchorUs = recordingIndex.getTimestampUs(Math.max(0, current));
+                            clockValid = true;
+                        }
+                        int next = Math.min(current + speed, lastFrame);
+                        long dueNanos = anchorNanos
+                                + (recordingIndex.getTimestampUs(next) - anchorUs) * 1000 / speed;
+                        long waitNanos = dueNanos - System.nanoTime();
+                        if (waitNanos > 0) {
+                            waitLocked(waitNanos);
+                            continue; // Um comando pode ter chegado durante a espera
+                        }
+                        // Atrasado: o frame do relógio, se estiver à frente
+                        long clockUs = anchorUs + (System.nanoTime() - anchorNanos) / 1000 * speed;
+                        frame = Math.min(Math.max(next, recordingIndex.findFrame(clockUs)), lastFrame);
+                    } else {
+                        waitLocked(0);
+                        continue;
+                    }
+                }
+
+                if (ended) {
+                    listener.onPaused(currentFrame);
+                    continue;
+                }
+                showFrame(recording, recordingIndex, frame);
+            }
+        } finally {
+            try {
+                recording.close();
+            } catch (IOException ignored) {}
+        }
+        Log.d(TAG, "Reprodução finalizada: " + file.getName());
+    }
+
+    private void waitLocked(long nanos) {
+        try {
+            if (nanos > 0) {
+                lock.wait(nanos / 1_000_000, (int) (nanos % 1_000_000));
+            } else {
+                lock.wait();
+            }
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    private void showFrame(MappedRecording recording, RecordingIndex recordingIndex, int frame) {
+        Bitmap bitmap = null;
+        try {
+            bitmap = decode(recording.getFrame(frame));
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Erro decodificando frame " + frame, e);
+        }
+        currentFrame = frame;
+        if (bitmap != null) {
+            long positionUs = recordingIndex.getTimestampUs(frame) - recordingIndex.getTimestampUs(0);
+            listener.onFrame(bitmap, frame, positionUs);
+        }
+    }
+
+    private Bitmap decode(ByteBuffer jpeg) {
+        if (frameWidth == 0) {
+            // Gravações têm resolução fixa: o header é lido uma vez
+            decodeOptions.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(new ByteBufferInputStream(jpeg.duplicate()), null, decodeOptions);
+            decodeOptions.inJustDecodeBounds = false;
+            if (decodeOptions.outWidth <= 0 || decodeOptions.outHeight <= 0) return null;
+            frameWidth = decodeOptions.outWidth;
+            frameHeight = decodeOptions.outHeight;
+        }
+
+        // Só divisores exatos, para o bitmap do anel servir sem ajuste
+        int sampleSize = FrameDecoder.sampleSizeFor(frameWidth, frameHeight, targetWidth, targetHeight);
+        while (sampleSize > 1 && (frameWidth % sampleSize != 0 || frameHeight % sampleSize != 0)) {
+            sampleSize /= 2;
+        }
+
+        Bitmap target = bitmapPool.acquire(frameWidth / sampleSize, frameHeight / sampleSize);
+        if (target == null) return null; // A view ainda segura todos os bitmaps
+
+        decodeOptions.inBitmap = target;
+        decodeOptions.inSampleSize = sampleSize;
+        try {
+            Bitmap bitmap = BitmapFactory.decodeStream(new ByteBufferInputStream(jpeg), null, decodeOptions);
+            if (bitmap != target) bitmapPool.release(target);
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            // Frame com outra resolução: o header é relido no próximo
+            bitmapPool.release(target);
+            frameWidth = 0;
+            throw e;
+        } finally {
+            decodeOptions.inBitmap = null;
+        }
+    }
+
+    /**
+     * InputStream sobre um ByteBuffer (aqui, a fatia mapeada do frame).
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] dst, int offset, int length) {
+            if (length == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(dst, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
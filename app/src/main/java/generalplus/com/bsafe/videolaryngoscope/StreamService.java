@@ -0,0 +1,403 @@
+package com.bsafe.videolaryngoscope;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+
+import com.bsafe.videolaryngoscope.stream.FrameAssembler;
+import com.bsafe.videolaryngoscope.stream.FrameBuffer;
+import com.bsafe.videolaryngoscope.stream.JhcmdStreamEngine;
+import com.bsafe.videolaryngoscope.stream.PreRecordBuffer;
+import com.bsafe.videolaryngoscope.stream.SegmentedRecorder;
+import com.bsafe.videolaryngoscope.stream.StreamMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serviço em primeiro plano dono da sessão JHCMD: sockets, remontagem,
+ * pré-gravação e gravação.
+ *
+ * A {@link CameraActivity} apenas se conecta como consumidora de frames e de
+ * eventos ({@link #attach}/{@link #detach}); assim uma recriação da activity,
+ * um diálogo de permissão ou uma saída rápida do app não derrubam o stream nem
+ * interrompem a gravação. Sem consumidor e sem gravação, a sessão é encerrada
+ * após {@link #IDLE_TIMEOUT_MS}.
+ */
+public class StreamService extends Service {
+
+    private static final String TAG = "StreamService";
+
+    private static final String CHANNEL_ID = "stream";
+    private static final int NOTIFICATION_ID = 1;
+
+    // Sem consumidor e sem gravação, encerra a sessão após este tempo
+    private static final long IDLE_TIMEOUT_MS = 60_000;
+    private static final long RECONNECT_DELAY_MS = 3000;
+
+    // Pré-gravação: últimos segundos antes do Record, limitados em memória (fora do heap)
+    private static final int PRE_RECORD_SECONDS = 5;
+    private static final int PRE_RECORD_CAPACITY = 16 * 1024 * 1024;
+
+    // Eventos enviados ao Handler do consumidor (Message.what)
+    static final int MSG_CONNECTED = 1;
+    static final int MSG_DISCONNECTED = 2;
+    static final int MSG_ERROR = 4;              // obj: mensagem
+    static final int MSG_RECORDING_FINISHED = 5; // obj: SegmentedRecorder, arg1: 1 se sucesso
+    // Da própria CameraActivity, no mesmo Handler: reservado aqui para não colidir
+    static final int MSG_PHOTO_SAVED = 6;        // obj: File, arg1: 1 se sucesso
+    static final int MSG_STALLED = 7;
+    static final int MSG_RECOVERED = 8;
+
+    /**
+     * Acesso local ao serviço (mesmo processo).
+     */
+    class LocalBinder extends Binder {
+        StreamService getService() {
+            return StreamService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable idleStop = this::shutdown;
+
+    // Sessão JHCMD (sockets, handshake, recepção e remontagem)
+    private JhcmdStreamEngine streamEngine;
+    private ExecutorService executorService;
+
+    // Consumidor atual (activity visível); null quando ninguém exibe o stream
+    private volatile FrameAssembler.FrameSink frameConsumer;
+    private volatile Handler eventHandler;
+
+    // Estado
+    private volatile boolean sessionActive = false; // Sessão desejada (reconecta se cair)
+    private volatile boolean isConnected = false;
+    private boolean isConnecting = false; // Apenas main thread
+
+    // Para gravação. O destino de cada frame (pré-roll ou gravação) e a troca
+    // entre eles ficam sob recordingLock: nenhum frame cai entre os dois
+    private final Object recordingLock = new Object();
+    private volatile SegmentedRecorder recorder; // Escrito sob recordingLock
+    private PreRecordBuffer preRecordBuffer;
+
+    // Último JPEG completo recebido, mantido para a captura de foto
+    private final Object lastFrameLock = new Object();
+    private FrameBuffer lastFrame; // Protegido por lastFrameLock
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Log.d(TAG, "onCreate");
+
+        executorService = Executors.newSingleThreadExecutor();
+        preRecordBuffer = new PreRecordBuffer(PRE_RECORD_CAPACITY, PRE_RECORD_SECONDS * 1000L);
+        streamEngine = new JhcmdStreamEngine(new JhcmdStreamEngine.Config(), this::onFrame,
+                ((BsafeApplication) getApplication()).getStreamMetrics());
+        streamEngine.setStallListener(new JhcmdStreamEngine.StallListener() {
+            @Override
+            public void onStreamStalled() {
+                sendEvent(MSG_STALLED, 0, null);
+            }
+
+            @Override
+            public void onStreamRecovered(long recoveryMs) {
+                sendEvent(MSG_RECOVERED, 0, null);
+            }
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Sem a activity o serviço não sabe o que fazer após ser morto: não recria
+        ServiceCompat.startForeground(this, NOTIFICATION_ID, buildNotification(),
+                ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        Log.d(TAG, "onDestroy");
+        if (sessionActive) {
+            endSession();
+        }
+        handler.removeCallbacksAndMessages(null);
+        executorService.shutdown();
+    }
+
+    /**
+     * Passa a entregar frames e eventos ao consumidor. Apenas main thread.
+     */
+    void attach(FrameAssembler.FrameSink consumer, Handler events) {
+        handler.removeCallbacks(idleStop);
+        frameConsumer = consumer;
+        eventHandler = events;
+        if (isConnected) {
+            events.sendEmptyMessage(MSG_CONNECTED);
+        }
+    }
+
+    /**
+     * O consumidor deixou de exibir o stream; a sessão continua por
+     * {@link #IDLE_TIMEOUT_MS} (ou enquanto gravar). Apenas main thread.
+     */
+    void detach() {
+        frameConsumer = null;
+        eventHandler = null;
+        scheduleIdleStop();
+    }
+
+    private void scheduleIdleStop() {
+        handler.removeCallbacks(idleStop);
+        if (eventHandler == null && recorder == null && sessionActive) {
+            handler.postDelayed(idleStop, IDLE_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Conecta ao dispositivo se ainda não houver sessão. Apenas main thread.
+     */
+    void startSession() {
+        sessionActive = true;
+        if (!isConnected && !isConnecting) {
+            isConnecting = true;
+            executorService.execute(this::connectToDevice);
+        }
+    }
+
+    /**
+     * Encerra a sessão (e a gravação) e sai do primeiro plano; o serviço termina
+     * quando a activity se desvincular. Apenas main thread.
+     */
+    void shutdown() {
+        Log.d(TAG, "Encerrando sessão");
+        endSession();
+        ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+        stopSelf();
+    }
+
+    private void endSession() {
+        sessionActive = false;
+        handler.removeCallbacks(idleStop);
+        stopRecording();
+        executorService.execute(this::disconnectFromDevice);
+    }
+
+    /**
+     * Conecta ao dispositivo usando protocolo JHCMD
+     */
+    private void connectToDevice() {
+        try {
+            streamEngine.connect();
+            isConnected = true;
+            handler.post(() -> isConnecting = false);
+            sendEvent(MSG_CONNECTED, 0, null);
+
+        } catch (Exception e) {
+            Log.e(TAG, "ERRO ao conectar", e);
+            sendEvent(MSG_ERROR, 0, "Falha na conexão: " + e.getMessage());
+            disconnectFromDevice();
+            handler.post(() -> {
+                isConnecting = false;
+                reconnectAfterDelay();
+            });
+        }
+    }
+
+    /**
+     * Reconecta após delay, enquanto a sessão for desejada
+     */
+    private void reconnectAfterDelay() {
+        handler.postDelayed(() -> {
+            if (sessionActive) startSession();
+        }, RECONNECT_DELAY_MS);
+    }
+
+    /**
+     * Frame completo (já validado pelo FrameAssembler): gravação, foto e consumidor
+     */
+    private void onFrame(FrameBuffer frame) {
+        // O writer copia o frame para seu anel sem bloquear
+        boolean accepted = true;
+        synchronized (recordingLock) {
+            SegmentedRecorder activeRecorder = recorder;
+            if (activeRecorder == null) {
+                preRecordBuffer.add(frame);
+            } else {
+                accepted = activeRecorder.submit(frame);
+            }
+        }
+        if (!accepted) {
+            streamEngine.getMetrics().onFrameDropped(StreamMetrics.DropReason.RECORDING_BACKLOG);
+        }
+
+        // Guarda o JPEG original para a foto, sem cópia
+        FrameBuffer previous;
+        synchronized (lastFrameLock) {
+            previous = lastFrame;
+            lastFrame = frame.retain();
+        }
+        if (previous != null) {
+            previous.release();
+        }
+
+        // A referência passa para o consumidor; sem ele, volta ao pool
+        FrameAssembler.FrameSink consumer = frameConsumer;
+        if (consumer != null) {
+            consumer.onFrame(frame);
+        } else {
+            frame.release();
+        }
+    }
+
+    /**
+     * Desconecta do dispositivo
+     */
+    private void disconnectFromDevice() {
+        streamEngine.disconnect();
+        isConnected = false;
+        logStreamStats();
+
+        // Não emenda na próxima gravação frames de uma conexão anterior
+        preRecordBuffer.clear();
+
+        // Devolve ao pool o frame guardado para foto
+        FrameBuffer previous;
+        synchronized (lastFrameLock) {
+            previous = lastFrame;
+            lastFrame = null;
+        }
+        if (previous != null) {
+            previous.release();
+        }
+
+        sendEvent(MSG_DISCONNECTED, 0, null);
+    }
+
+    private void logStreamStats() {
+        FrameAssembler frameAssembler = streamEngine.getAssembler();
+        Log.d(TAG, "Stream: " + streamEngine.getPacketsReceived() + " pacotes"
+                + ", frames: " + frameAssembler.getFramesCompleted()
+                + ", descartados: " + frameAssembler.getFramesDropped()
+                + ", perdidos: " + frameAssembler.getPacketsLost()
+                + ", reordenados: " + frameAssembler.getPacketsReordered());
+        Log.d(TAG, "Telemetria: " + streamEngine.getMetrics().snapshot());
+    }
+
+    /**
+     * Último frame recebido, com uma referência a mais (quem chama libera), ou null.
+     */
+    FrameBuffer retainLastFrame() {
+        synchronized (lastFrameLock) {
+            return lastFrame != null ? lastFrame.retain() : null;
+        }
+    }
+
+    /**
+     * Inicia a gravação com os segundos anteriores já recebidos e retorna a
+     * duração desse trecho (ms). Apenas main thread.
+     */
+    long startRecording(File videoFile) throws IOException {
+        // Segmentos com rollover; o diário permite recuperar a gravação se o app morrer
+        SegmentedRecorder newRecorder = new SegmentedRecorder(videoFile, new SegmentedRecorder.Config(),
+                (r, error) -> handler.post(() -> {
+                    sendEvent(MSG_RECORDING_FINISHED, error == null ? 1 : 0, r);
+                    scheduleIdleStop();
+                }));
+        long preRollMs = preRecordBuffer.getBufferedDurationMs();
+
+        // O arquivo começa com os segundos anteriores. O anel é congelado e o
+        // destino trocado sob o mesmo lock que o receptor usa por frame: o
+        // próximo frame já vai para a gravação, logo depois do pré-roll
+        synchronized (recordingLock) {
+            newRecorder.start(preRecordBuffer);
+            recorder = newRecorder;
+        }
+        handler.removeCallbacks(idleStop);
+        updateNotification();
+        return preRollMs;
+    }
+
+    /**
+     * Para a gravação; o writer termina em background e avisa com
+     * {@link #MSG_RECORDING_FINISHED}. Apenas main thread.
+     */
+    void stopRecording() {
+        SegmentedRecorder activeRecorder;
+        synchronized (recordingLock) {
+            activeRecorder = recorder;
+            recorder = null;
+        }
+        if (activeRecorder != null) {
+            activeRecorder.stop();
+            updateNotification();
+        }
+    }
+
+    boolean isRecording() {
+        return recorder != null;
+    }
+
+    boolean isConnected() {
+        return isConnected;
+    }
+
+    private void sendEvent(int what, int arg1, Object obj) {
+        Handler events = eventHandler;
+        if (events != null) {
+            events.obtainMessage(what, arg1, 0, obj).sendToTarget();
+        } else if (what == MSG_RECORDING_FINISHED) {
+            Log.i(TAG, "Gravação finalizada sem tela aberta: " + ((SegmentedRecorder) obj).getFile().getName());
+        }
+    }
+
+    private Notification buildNotification() {
+        NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    "Videolaringoscópio", NotificationManager.IMPORTANCE_LOW));
+        }
+
+        // Toque na notificação volta para a tela da câmera existente
+        Intent intent = new Intent(this, CameraActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, intent,
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_camera)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(recorder != null ? "Gravando vídeo" : "Stream ativo")
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+    }
+
+    private void updateNotification() {
+        if (!sessionActive) return;
+        NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        manager.notify(NOTIFICATION_ID, buildNotification());
+    }
+}
@@ -0,0 +1,158 @@
+package com.bsafe.videolaryngoscope;
+
+import android.os.Handler;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+import com.bsafe.videolaryngoscope.stream.StreamMetrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Leitura periódica do {@link StreamMetrics}: atualiza o overlay de depuração
+ * a cada segundo e acrescenta um snapshot a um CSV diário a cada 10 s, para
+ * diagnosticar vídeo travado em campo sem logcat.
+ *
+ * Roda na main thread (via {@link Handler}); a escrita do CSV vai para o
+ * executor informado.
+ */
+final class StreamTelemetry implements Runnable {
+
+    private static final String TAG = "StreamTelemetry";
+
+    private static final long UPDATE_INTERVAL_MS = 1000;
+    private static final long EXPORT_INTERVAL_NANOS = 10_000_000_000L;
+
+    private final StreamMetrics metrics;
+    private final TextView overlay;
+    private final Handler handler;
+    private final Executor exportExecutor;
+    private final File exportDir;
+
+    private StreamMetrics.Snapshot previous;
+    private StreamMetrics.Snapshot lastExport;
+    private boolean running = false;
+
+    StreamTelemetry(StreamMetrics metrics, TextView overlay, Handler handler,
+                    Executor exportExecutor, File exportDir) {
+        this.metrics = metrics;
+        this.overlay = overlay;
+        this.handler = handler;
+        this.exportExecutor = exportExecutor;
+        this.exportDir = exportDir;
+    }
+
+    void start() {
+        if (running) return;
+        running = true;
+        previous = metrics.snapshot();
+        lastExport = previous;
+        handler.postDelayed(this, UPDATE_INTERVAL_MS);
+    }
+
+    /**
+     * Para as atualizações e exporta o trecho ainda não gravado.
+     */
+    void stop() {
+        if (!running) return;
+        running = false;
+        handler.removeCallbacks(this);
+
+        StreamMetrics.Snapshot current = metrics.snapshot();
+        if (current.timeNanos > lastExport.timeNanos) {
+            export(current.since(lastExport));
+        }
+        overlay.setText(null);
+    }
+
+    void setOverlayVisible(boolean visible) {
+        overlay.setVisibility(visible ? View.VISIBLE : View.GONE);
+    }
+
+    boolean isOverlayVisible() {
+        return overlay.getVisibility() == View.VISIBLE;
+    }
+
+    @Override
+    public void run() {
+        if (!running) return;
+
+        StreamMetrics.Snapshot current = metrics.snapshot();
+        if (current.timeToFirstFrameMs != previous.timeToFirstFrameMs && current.timeToFirstFrameMs >= 0) {
+            Log.i(TAG, "Tempo até o primeiro frame: " + current.timeToFirstFrameMs + " ms");
+        }
+        if (isOverlayVisible()) {
+            overlay.setText(format(current.since(previous)));
+        }
+        previous = current;
+
+        if (current.timeNanos - lastExport.timeNanos >= EXPORT_INTERVAL_NANOS) {
+            export(current.since(lastExport));
+            lastExport = current;
+        }
+        handler.postDelayed(this, UPDATE_INTERVAL_MS);
+    }
+
+    private static String format(StreamMetrics.Snapshot interval) {
+        return String.format(Locale.US,
+                "%.1f fps (exibidos %.1f) · %d pct/s%n"
+                        + "lacunas %d · parciais %d · descartes %d (gravação %d)%n"
+                        + "latência p50 %s · p90 %s · p99 %s%n"
+                        + "travamentos %d (recuperação média %s) · 1º frame %s%n"
+                        + "jitter %s · atrasados %d",
+                interval.perSecond(interval.framesAssembled),
+                interval.perSecond(interval.framesDisplayed),
+                Math.round(interval.perSecond(interval.packetsReceived)),
+                interval.packetGaps,
+                interval.framesSalvaged,
+                interval.getDisplayDrops(),
+                interval.getFramesDropped(StreamMetrics.DropReason.RECORDING_BACKLOG),
+                formatLatency(interval.getLatencyPercentileMs(50)),
+                formatLatency(interval.getLatencyPercentileMs(90)),
+                formatLatency(interval.getLatencyPercentileMs(99)),
+                interval.stallsRecovered,
+                interval.stallsRecovered > 0 ? interval.getAverageRecoveryMs() + "ms" : "-",
+                interval.timeToFirstFrameMs >= 0 ? interval.timeToFirstFrameMs + "ms" : "-",
+                interval.jitterSamples > 0
+                        ? String.format(Locale.US, "%.1fms", interval.getAverageJitterMs()) : "-",
+                interval.framesLate);
+    }
+
+    private static String formatLatency(int ms) {
+        if (ms < 0) return "-";
+        if (ms == Integer.MAX_VALUE) return ">1s";
+        return "≤" + ms + "ms";
+    }
+
+    private void export(StreamMetrics.Snapshot interval) {
+        long now = System.currentTimeMillis();
+        String line = interval.toCsvLine(now);
+        String day = new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date(now));
+
+        exportExecutor.execute(() -> {
+            File file = new File(exportDir, "telemetry_" + day + ".csv");
+            try {
+                if (!exportDir.exists()) exportDir.mkdirs();
+                boolean isNew = !file.exists();
+                try (Writer writer = new FileWriter(file, true)) {
+                    if (isNew) {
+                        writer.write(StreamMetrics.Snapshot.CSV_HEADER);
+                        writer.write('\n');
+                    }
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Erro exportando telemetria", e);
+            }
+        });
+    }
+}
@@ -0,0 +1,318 @@
+package com.bsafe.videolaryngoscope;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.bsafe.videolaryngoscope.stream.JpegUtils;
+import com.bsafe.videolaryngoscope.stream.RecordingIndex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Miniaturas das fotos e gravações (BsafeMedia/Images, BsafeMedia/Videos e
+ * BsafeAppMedia) para uma galeria.
+ *
+ * Dois níveis: um LRU em memória limitado em bytes e um cache em disco cuja
+ * chave é caminho + data de modificação + tamanho, então um arquivo alterado
+ * gera uma miniatura nova. As miniaturas são geradas sob demanda num pool em
+ * background; {@link Request#cancel()} descarta pedidos de itens que saíram
+ * da tela. Vídeos usam o primeiro frame, lido sem percorrer o resto do
+ * arquivo.
+ */
+final class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+
+    /** Lado maior das miniaturas, em pixels. */
+    static final int THUMBNAIL_SIZE = 256;
+
+    private static final int THREADS = 2;
+    private static final int DISK_QUALITY = 85;
+    private static final long DISK_MAX_BYTES = 32L * 1024 * 1024;
+    // AVIs de outros gravadores (ex.: baixados da câmera): onde procurar o primeiro JPEG
+    private static final int FIRST_FRAME_SEARCH_BYTES = 512 * 1024;
+
+    interface Callback {
+        /**
+         * Main thread; {@code thumbnail} é null se o arquivo não pôde ser lido.
+         * O bitmap é compartilhado com o cache e não deve ser reciclado.
+         */
+        void onThumbnail(File file, Bitmap thumbnail);
+    }
+
+    /**
+     * Pedido em andamento; cancelar evita a entrega e, se ainda na fila, a geração.
+     */
+    static final class Request {
+        private volatile boolean cancelled;
+        private volatile Future<?> future;
+
+        void cancel() {
+            cancelled = true;
+            Future<?> pending = future;
+            if (pending != null) pending.cancel(false);
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final File diskDir;
+    private final LruCache<String, Bitmap> memory;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Object diskLock = new Object();
+    private long diskBytes = -1; // -1: ainda não medido
+
+    ThumbnailCache(File diskDir) {
+        this.diskDir = diskDir;
+
+        // 1/16 do heap, em KB
+        int maxKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 16);
+        this.memory = new LruCache<String, Bitmap>(maxKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            });
+            thread.setName("Thumbnail-" + threadCount.incrementAndGet());
+            return thread;
+        });
+    }
+
+    /**
+     * Pede a miniatura de {@code file}. Se estiver na memória o callback é
+     * chamado antes de retornar; senão é chamado na main thread ao ficar pronta.
+     */
+    Request load(File file, Callback callback) {
+        Request request = new Request();
+        String key = keyFor(file);
+        Bitmap cached = memory.get(key);
+        if (cached != null) {
+            callback.onThumbnail(file, cached);
+            return request;
+        }
+
+        request.future = executor.submit(() -> {
+            if (request.cancelled) return;
+            Bitmap thumbnail = loadOrCreate(file, key);
+            if (thumbnail != null) memory.put(key, thumbnail);
+            mainHandler.post(() -> {
+                if (!request.cancelled) callback.onThumbnail(file, thumbnail);
+            });
+        });
+        return request;
+    }
+
+    /**
+     * Libera a parte em memória (ex.: onTrimMemory); o cache em disco continua.
+     */
+    void trimMemory() {
+        memory.evictAll();
+    }
+
+    private static String keyFor(File file) {
+        return file.getAbsolutePath() + '|' + file.lastModified() + '|' + file.length();
+    }
+
+    private Bitmap loadOrCreate(File file, String key) {
+        File cacheFile = new File(diskDir, diskName(key));
+        if (cacheFile.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(cacheFile.getPath(), null);
+            if (bitmap != null) {
+                cacheFile.setLastModified(System.currentTimeMillis()); // Ordem de uso para a limpeza
+                return bitmap;
+            }
+            cacheFile.delete();
+        }
+
+        Bitmap thumbnail;
+        try {
+            thumbnail = isVideo(file) ? createVideoThumbnail(file) : createImageThumbnail(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Erro gerando miniatura de " + file.getName(), e);
+            return null;
+        }
+        if (thumbnail != null) writeToDisk(cacheFile, thumbnail);
+        return thumbnail;
+    }
+
+    private static boolean isVideo(File file) {
+        String name = file.getName().toLowerCase(Locale.US);
+        return name.endsWith(".avi") || name.endsWith(".mjpeg");
+    }
+
+    private static Bitmap createImageThumbnail(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = FrameDecoder.sampleSizeFor(options.outWidth, options.outHeight,
+                THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+        return scaleToFit(BitmapFactory.decodeFile(file.getPath(), options));
+    }
+
+    /**
+     * Primeiro frame do vídeo: pelo header das gravações do app ou, em outros
+     * AVIs, pelo primeiro JPEG no início do arquivo. O resto não é lido.
+     */
+    private static Bitmap createVideoThumbnail(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            long[] location = new long[2];
+            if (RecordingIndex.findFirstFrame(channel, location)) {
+                byte[] jpeg = new byte[(int) location[1]];
+                ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, location[0] + buffer.position()) < 0) {
+                        throw new IOException("Frame truncado");
+                    }
+                }
+                Bitmap thumbnail = decodeScaled(jpeg, 0, jpeg.length);
+                if (thumbnail != null) return thumbnail;
+            }
+
+            byte[] head = new byte[(int) Math.min(FIRST_FRAME_SEARCH_BYTES, channel.size())];
+            int length = readUpTo(channel, head);
+            int start = findJpegStart(head, length);
+            return start < 0 ? null : decodeScaled(head, start, length - start);
+        }
+    }
+
+    private static int readUpTo(FileChannel channel, byte[] buffer) throws IOException {
+        ByteBuffer dst = ByteBuffer.wrap(buffer);
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, dst.position()) <= 0) break;
+        }
+        return dst.position();
+    }
+
+    private static int findJpegStart(byte[] data, int length) {
+        for (int i = 0; i + 2 < length; i++) {
+            if ((data[i] & 0xFF) == 0xFF && (data[i + 1] & 0xFF) == JpegUtils.MARKER_SOI
+                    && (data[i + 2] & 0xFF) == 0xFF) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Bitmap decodeScaled(byte[] data, int offset, int length) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, offset, length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = FrameDecoder.sampleSizeFor(options.outWidth, options.outHeight,
+                THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+        return scaleToFit(BitmapFactory.decodeByteArray(data, offset, length, options));
+    }
+
+    /**
+     * Reduz o bitmap (já subamostrado por potência de 2) ao tamanho final.
+     */
+    private static Bitmap scaleToFit(Bitmap bitmap) {
+        if (bitmap == null) return null;
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        float scale = (float) THUMBNAIL_SIZE / Math.max(width, height);
+        if (scale >= 1f) return bitmap;
+
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)), true);
+        if (scaled != bitmap) bitmap.recycle();
+        return scaled;
+    }
+
+    private void writeToDisk(File cacheFile, Bitmap thumbnail) {
+        synchronized (diskLock) {
+            if (!diskDir.exists() && !diskDir.mkdirs()) return;
+
+            File tempFile = new File(cacheFile.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, DISK_QUALITY, out);
+            } catch (IOException e) {
+                Log.w(TAG, "Erro gravando miniatura", e);
+                tempFile.delete();
+                return;
+            }
+            if (!tempFile.renameTo(cacheFile)) {
+                tempFile.delete();
+                return;
+            }
+
+            if (diskBytes < 0) {
+                diskBytes = 0;
+                File[] files = diskDir.listFiles();
+                if (files != null) {
+                    for (File file : files) diskBytes += file.length();
+                }
+            } else {
+                diskBytes += cacheFile.length();
+            }
+            if (diskBytes > DISK_MAX_BYTES) trimDisk();
+        }
+    }
+
+    /**
+     * Apaga as miniaturas usadas há mais tempo até ficar em 3/4 do limite.
+     */
+    private void trimDisk() {
+        File[] files = diskDir.listFiles();
+        if (files == null) return;
+
+        long[] lastUsed = new long[files.length];
+        for (int i = 0; i < files.length; i++) lastUsed[i] = files[i].lastModified();
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(lastUsed[a], lastUsed[b]));
+
+        for (Integer i : order) {
+            if (diskBytes <= DISK_MAX_BYTES * 3 / 4) break;
+            long length = files[i].length();
+            if (files[i].delete()) diskBytes -= length;
+        }
+    }
+
+    private static String diskName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + 4);
+            for (byte b : digest) name.append(String.format(Locale.US, "%02x", b));
+            return name.append(".jpg").toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode()) + ".jpg";
+        }
+    }
+}
@@ -2,13 +2,17 @@ package com.bsafe.videolaryngoscope;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import generalplus.com.GPCamLib.CamWrapper;
 
 public class Utils {
@@ -16,25 +20,71 @@ public class Utils {
     private CamWrapper mCamWrapper;
     private Context mContext;
     private Handler mActivityHandler;
-    private String lastSetDownloadPath;
+    private final DeviceFileCatalog fileCatalog;
+    private final DownloadQueue downloadQueue;
+    // Pedido de lista ainda sem resposta: pedidos repetidos nesse intervalo são agrupados
+    private volatile long listRequestedAtMs = -1;
+
+    // O que fazer quando a lista de arquivos chegar
+    private static final int LIST_FOR_LATEST = 0;
+    private static final int LIST_FOR_ALL = 1;
+    private static final int LIST_FOR_RESUME = 2;
+    private volatile int listPurpose = LIST_FOR_LATEST;
+
+    private static final long LIST_REQUEST_TIMEOUT_MS = 5000;
 
     public static final int MSG_FILE_DOWNLOAD_SUCCESS = 1003;
     public static final int MSG_FILE_DOWNLOAD_ERROR = 1004;
     public static final int MSG_NO_FILES_FOUND = 1005;
+    public static final int MSG_DOWNLOAD_PROGRESS = 1006;       // obj: DownloadQueue.Progress
+    public static final int MSG_DOWNLOAD_QUEUE_FINISHED = 1007; // obj: DownloadQueue.Progress
 
     public Utils(Context context, CamWrapper camWrapper, Handler activityHandler) {
         this.mContext = context;
         this.mCamWrapper = camWrapper;
         this.mActivityHandler = activityHandler;
+        this.fileCatalog = new DeviceFileCatalog(new File(context.getFilesDir(), "device_catalog.tsv"));
+        this.downloadQueue = new DownloadQueue(camWrapper, new Handler(Looper.getMainLooper()),
+                new File(context.getFilesDir(), "download_queue.txt"), new DownloadListener());
     }
 
-    public String getLastSetDownloadPath() {
-        return lastSetDownloadPath;
+    public void retrieveLatestMediaFromDevice() {
+        listPurpose = LIST_FOR_LATEST;
+        requestFileList();
     }
 
-    public void retrieveLatestMediaFromDevice() {
+    /**
+     * Baixa todos os arquivos do dispositivo que ainda não estão no aparelho.
+     */
+    public void downloadAllFromDevice() {
+        listPurpose = LIST_FOR_ALL;
+        requestFileList();
+    }
+
+    /**
+     * Retoma um descarregamento interrompido em uma sessão anterior, se houver.
+     */
+    public boolean resumePendingDownloads() {
+        if (downloadQueue.loadPendingNames().isEmpty()) return false;
+        listPurpose = LIST_FOR_RESUME;
+        requestFileList();
+        return true;
+    }
+
+    public void cancelPendingDownloads() {
+        downloadQueue.cancelPending();
+    }
+
+    private void requestFileList() {
         Log.d(TAG, "Tentando recuperar a lista de mídias solicitando a lista completa de arquivos...");
         if (mCamWrapper != null) {
+            long now = SystemClock.elapsedRealtime();
+            long requestedAt = listRequestedAtMs;
+            if (requestedAt >= 0 && now - requestedAt < LIST_REQUEST_TIMEOUT_MS) {
+                Log.d(TAG, "Lista de arquivos já solicitada; aguardando a resposta.");
+                return;
+            }
+            listRequestedAtMs = now;
             mCamWrapper.GPCamSendGetFullFileList();
         } else {
             Log.e(TAG, "mCamWrapper é nulo, não é possível enviar GPCamSendGetFullFileList.");
@@ -46,6 +96,7 @@ public class Utils {
     }
 
     public void processCameraFilesAndDownloadLatest(int fileCount) {
+        listRequestedAtMs = -1;
         if (mCamWrapper == null) {
             Log.e(TAG, "mCamWrapper é nulo em processCameraFilesAndDownloadLatest.");
             if (mActivityHandler != null) {
@@ -63,16 +114,13 @@ public class Utils {
             return;
         }
 
-        List<String> fileNames = new ArrayList<>();
-        for (int i = 0; i < fileCount; i++) {
-            String fileName = mCamWrapper.GPCamGetFileName(i);
-            if (fileName != null && !fileName.isEmpty()) {
-                fileNames.add(fileName);
-                Log.d(TAG, "Arquivo na câmera: " + fileName + " (Tamanho: " + mCamWrapper.GPCamGetFileSize(i) + ")");
-            }
-        }
+        long start = SystemClock.elapsedRealtime();
+        int reads = fileCatalog.refresh(mCamWrapper, fileCount);
+        DeviceFileCatalog.Entry latest = fileCatalog.getLatest();
+        Log.d(TAG, "Catálogo atualizado em " + (SystemClock.elapsedRealtime() - start) + " ms ("
+                + reads + " nomes lidos, " + fileCatalog.size() + " arquivos)");
 
-        if (fileNames.isEmpty()) {
+        if (latest == null) {
             Log.w(TAG, "A contagem de arquivos era " + fileCount + " mas nenhum nome de arquivo válido foi recuperado.");
             if (mActivityHandler != null) {
                 mActivityHandler.sendMessage(Message.obtain(mActivityHandler, MSG_NO_FILES_FOUND));
@@ -80,35 +128,6 @@ public class Utils {
             return;
         }
 
-        Collections.sort(fileNames, (s1, s2) -> s2.compareTo(s1)); // Descendente
-        String latestFile = fileNames.get(0);
-        Log.i(TAG, "Último arquivo identificado na câmera (ordenação heurística): " + latestFile);
-
-        int originalIndexOfLatest = -1;
-        for (int i = 0; i < fileCount; i++) {
-            if (latestFile.equals(mCamWrapper.GPCamGetFileName(i))) {
-                originalIndexOfLatest = i;
-                break;
-            }
-        }
-
-        if (originalIndexOfLatest != -1) {
-            downloadFileFromCameraDevice(latestFile, originalIndexOfLatest);
-        } else {
-            Log.e(TAG, "Não foi possível encontrar o índice original para o último arquivo determinado heuristicamente: " + latestFile);
-            if (mActivityHandler != null) {
-                Message msg = Message.obtain(mActivityHandler, MSG_FILE_DOWNLOAD_ERROR, "Não foi possível encontrar o índice do arquivo mais recente");
-                mActivityHandler.sendMessage(msg);
-            }
-        }
-    }
-
-    private void downloadFileFromCameraDevice(String cameraFileName, int fileIndex) {
-        if (mCamWrapper == null) {
-            Log.e(TAG, "mCamWrapper é nulo em downloadFileFromCameraDevice.");
-            return;
-        }
-
         File storageDir = getOutputDirectory();
         if (storageDir == null) {
             Log.e(TAG, "Falha ao obter o diretório de saída local para download.");
@@ -116,33 +135,49 @@ public class Utils {
                 Message msg = Message.obtain(mActivityHandler, MSG_FILE_DOWNLOAD_ERROR, "Falha ao obter diretório de saída");
                 mActivityHandler.sendMessage(msg);
             }
+            fileCatalog.saveIfDirty();
             return;
         }
 
-        this.lastSetDownloadPath = new File(storageDir, cameraFileName).getAbsolutePath();
-        Log.i(TAG, "Preparando para baixar o arquivo: " + cameraFileName + " (índice: " + fileIndex + ") para o caminho local: " + lastSetDownloadPath);
-
-        mCamWrapper.SetGPCamSetDownloadPath(lastSetDownloadPath);
-        Log.d(TAG, "Diretório de download definido no CamWrapper para: " + lastSetDownloadPath);
-
-        Log.d(TAG, "Solicitando download para o arquivo: " + cameraFileName + " no índice: " + fileIndex);
-        int result = mCamWrapper.GPCamSendGetFileRawdata(fileIndex);
-        Log.d(TAG, "GPCamSendGetFileRawdata(índice: " + fileIndex + ") retornou: " + result);
-
-        if (result == 0) {
-            Log.i(TAG, "Solicitação de download enviada com sucesso para " + cameraFileName);
-            Toast.makeText(mContext, "Solicitação de download enviada para: " + cameraFileName, Toast.LENGTH_SHORT).show();
-        } else {
-            Log.e(TAG, "Falha ao enviar solicitação de download. Resultado: " + result);
-            if (mActivityHandler != null) {
-                Message msg = Message.obtain(mActivityHandler, MSG_FILE_DOWNLOAD_ERROR, "Falha ao enviar comando de download para " + cameraFileName);
-                mActivityHandler.sendMessage(msg);
+        switch (listPurpose) {
+            case LIST_FOR_ALL: {
+                List<DeviceFileCatalog.Entry> entries = fileCatalog.getEntries();
+                Log.i(TAG, "Enfileirando " + entries.size() + " arquivos da câmera para download");
+                downloadQueue.enqueue(entries, storageDir);
+                break;
             }
+            case LIST_FOR_RESUME: {
+                Set<String> names = new HashSet<>(downloadQueue.loadPendingNames());
+                List<DeviceFileCatalog.Entry> entries = new ArrayList<>();
+                for (DeviceFileCatalog.Entry entry : fileCatalog.getEntries()) {
+                    if (names.contains(entry.name)) entries.add(entry);
+                }
+                Log.i(TAG, "Retomando downloads pendentes: " + entries.size() + " de " + names.size() + " arquivos ainda na câmera");
+                downloadQueue.enqueue(entries, storageDir);
+                break;
+            }
+            default:
+                Log.i(TAG, "Último arquivo identificado na câmera: " + latest.name + " (índice: " + latest.index + ")");
+                downloadFileFromCameraDevice(latest, storageDir);
+                break;
         }
+        listPurpose = LIST_FOR_LATEST;
+        fileCatalog.saveIfDirty();
+    }
+
+    private void downloadFileFromCameraDevice(DeviceFileCatalog.Entry entry, File storageDir) {
+        // O caminho passado ao CamWrapper é o .part definido pela fila
+        Log.i(TAG, "Preparando para baixar o arquivo: " + entry.name + " (índice: " + entry.index + ") para o diretório local: " + storageDir.getAbsolutePath());
+
+        downloadQueue.enqueue(Collections.singletonList(entry), storageDir);
+        Toast.makeText(mContext, "Solicitação de download enviada para: " + entry.name, Toast.LENGTH_SHORT).show();
     }
 
     public void handleDownloadSuccess(String downloadedFilePath) {
         Log.i(TAG, "Utils: Download do arquivo reportado como bem-sucedido. Caminho: " + downloadedFilePath);
+        if (downloadQueue.onDownloadFinished(downloadedFilePath)) {
+            return; // A fila renomeia o .part e avisa via DownloadListener
+        }
         if (mActivityHandler != null && downloadedFilePath != null && !downloadedFilePath.isEmpty()) {
             Message msg = Message.obtain(mActivityHandler, MSG_FILE_DOWNLOAD_SUCCESS, downloadedFilePath);
             mActivityHandler.sendMessage(msg);
@@ -153,6 +188,9 @@ public class Utils {
 
     public void handleDownloadError(String reason) {
         Log.e(TAG, "Utils: Download do arquivo reportado como erro. Motivo: " + reason);
+        if (downloadQueue.onDownloadFailed(reason)) {
+            return;
+        }
         if (mActivityHandler != null) {
             Message msg = Message.obtain(mActivityHandler, MSG_FILE_DOWNLOAD_ERROR, reason);
             mActivityHandler.sendMessage(msg);
@@ -169,4 +207,34 @@ public class Utils {
         }
         return mediaDir;
     }
-}
\ No newline at end of file
+
+    private void sendToActivity(int what, Object obj) {
+        if (mActivityHandler != null) {
+            mActivityHandler.sendMessage(Message.obtain(mActivityHandler, what, obj));
+        }
+    }
+
+    private class DownloadListener implements DownloadQueue.Listener {
+        @Override
+        public void onFileDownloaded(String name, File file, boolean alreadyPresent) {
+            Log.i(TAG, (alreadyPresent ? "Arquivo já presente: " : "Download concluído: ") + file.getAbsolutePath());
+            sendToActivity(MSG_FILE_DOWNLOAD_SUCCESS, file.getAbsolutePath());
+        }
+
+        @Override
+        public void onFileFailed(String name, String reason) {
+            Log.e(TAG, "Falha no download de " + name + ": " + reason);
+            sendToActivity(MSG_FILE_DOWNLOAD_ERROR, name + ": " + reason);
+        }
+
+        @Override
+        public void onProgress(DownloadQueue.Progress progress) {
+            sendToActivity(MSG_DOWNLOAD_PROGRESS, progress);
+        }
+
+        @Override
+        public void onQueueFinished(DownloadQueue.Progress progress) {
+            sendToActivity(MSG_DOWNLOAD_QUEUE_FINISHED, progress);
+        }
+    }
+}
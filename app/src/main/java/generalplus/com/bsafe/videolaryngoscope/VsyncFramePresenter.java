@@ -0,0 +1,235 @@
+package com.bsafe.videolaryngoscope;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.view.Choreographer;
+
+import com.bsafe.videolaryngoscope.stream.StreamMetrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Estágio opcional entre o {@link FrameDecoder} e o renderer que entrega os
+ * frames alinhados ao vsync ({@link Choreographer}), com um buffer de 0 a
+ * {@link #MAX_BUFFER_FRAMES} frames contra a irregularidade do Wi-Fi.
+ *
+ * Cada bitmap recebe, na chegada, um horário de exibição: o anterior mais um
+ * intervalo médio entre frames, limitado entre a chegada e a chegada mais
+ * {@code bufferFrames} intervalos. Com 0 os frames só são alinhados ao vsync;
+ * cada frame a mais de buffer espaça melhor as rajadas ao custo de até um
+ * intervalo de latência. A cada vsync é exibido o frame mais novo já vencido;
+ * os vencidos anteriores a ele são descartados. O jitter de apresentação e os
+ * frames atrasados vão para o {@link StreamMetrics}.
+ */
+final class VsyncFramePresenter implements FrameRenderer, Choreographer.FrameCallback {
+
+    static final int MAX_BUFFER_FRAMES = 2;
+    static final int QUEUE_CAPACITY = MAX_BUFFER_FRAMES + 1;
+
+    // Estimativas iniciais (stream de 30 fps, tela de 60 Hz)
+    private static final long INITIAL_FRAME_INTERVAL_NANOS = 33_333_333L;
+    private static final long INITIAL_VSYNC_NANOS = 16_666_667L;
+
+    private final FrameDecoder decoder;
+    private final StreamMetrics metrics;
+    private final Handler mainHandler;
+
+    private volatile FrameRenderer target;
+    private volatile int bufferFrames;
+    private volatile boolean detached = true;
+
+    // Fila de bitmaps aguardando o vsync, do mais antigo ao mais novo (protegida por queueLock)
+    private final Object queueLock = new Object();
+    private final Bitmap[] queuedBitmaps = new Bitmap[QUEUE_CAPACITY];
+    private final long[] dueNanos = new long[QUEUE_CAPACITY];
+    private int head;
+    private int count;
+    private long frameIntervalNanos = INITIAL_FRAME_INTERVAL_NANOS;
+    private long lastArrivalNanos;
+    private long lastDueNanos;
+
+    private final AtomicBoolean schedulePosted = new AtomicBoolean(false);
+    private final Runnable scheduleRunnable = this::scheduleVsync;
+
+    // Apenas main thread
+    private Choreographer choreographer;
+    private boolean callbackPosted = false;
+    private long vsyncNanos = INITIAL_VSYNC_NANOS;
+    private long lastVsyncNanos;
+    private long lastPresentNanos;
+
+    VsyncFramePresenter(FrameDecoder decoder, StreamMetrics metrics, Handler mainHandler) {
+        this.decoder = decoder;
+        this.metrics = metrics;
+        this.mainHandler = mainHandler;
+    }
+
+    /**
+     * Renderer que exibe os frames liberados no vsync.
+     */
+    void setTarget(FrameRenderer target) {
+        this.target = target;
+    }
+
+    /**
+     * Frames de buffer contra jitter, de 0 a {@link #MAX_BUFFER_FRAMES}.
+     */
+    void setBufferFrames(int frames) {
+        bufferFrames = Math.max(0, Math.min(MAX_BUFFER_FRAMES, frames));
+    }
+
+    int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    @Override
+    public void onFrameReady(Bitmap bitmap) {
+        if (detached) {
+            decoder.releaseBitmap(bitmap);
+            return;
+        }
+
+        long now = System.nanoTime();
+        Bitmap overflow = null;
+        synchronized (queueLock) {
+            if (lastArrivalNanos != 0) {
+                // Média móvel do intervalo; pausas longas (travamento) não entram
+                long interval = now - lastArrivalNanos;
+                if (interval < 4 * frameIntervalNanos) {
+                    frameIntervalNanos += (interval - frameIntervalNanos) / 8;
+                }
+            }
+            lastArrivalNanos = now;
+            long due = Math.min(lastDueNanos + frameIntervalNanos, now + bufferFrames * frameIntervalNanos);
+            lastDueNanos = Math.max(now, due);
+
+            if (count == QUEUE_CAPACITY) {
+                // Rajada maior que o buffer: o mais antigo sai para limitar a latência
+                overflow = queuedBitmaps[head];
+                queuedBitmaps[head] = null;
+                head = (head + 1) % QUEUE_CAPACITY;
+                count--;
+            }
+            int slot = (head + count) % QUEUE_CAPACITY;
+            queuedBitmaps[slot] = bitmap;
+            dueNanos[slot] = lastDueNanos;
+            count++;
+        }
+        if (overflow != null) {
+            decoder.releaseBitmap(overflow);
+            decoder.onFrameDropped();
+        }
+
+        if (detached) {
+            // detach() rodou durante a inserção
+            clearQueue();
+        } else if (schedulePosted.compareAndSet(false, true)) {
+            mainHandler.post(scheduleRunnable);
+        }
+    }
+
+    private void scheduleVsync() {
+        schedulePosted.set(false);
+        if (!callbackPosted && !detached) {
+            callbackPosted = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        callbackPosted = false;
+        if (detached) return;
+
+        // Período do vsync medido entre callbacks consecutivos
+        long sinceLastVsync = frameTimeNanos - lastVsyncNanos;
+        if (sinceLastVsync > vsyncNanos / 2 && sinceLastVsync < vsyncNanos * 3 / 2) {
+            vsyncNanos += (sinceLastVsync - vsyncNanos) / 8;
+        }
+        lastVsyncNanos = frameTimeNanos;
+
+        Bitmap bitmap = null;
+        long due = 0;
+        long interval;
+        boolean pending;
+        synchronized (queueLock) {
+            // O mais novo que vence até o meio deste vsync; os anteriores a ele são descartados
+            long deadline = frameTimeNanos + vsyncNanos / 2;
+            while (count > 0 && dueNanos[head] <= deadline) {
+                if (bitmap != null) {
+                    decoder.releaseBitmap(bitmap);
+                    decoder.onFrameDropped();
+                }
+                bitmap = queuedBitmaps[head];
+                due = dueNanos[head];
+                queuedBitmaps[head] = null;
+                head = (head + 1) % QUEUE_CAPACITY;
+                count--;
+            }
+            interval = frameIntervalNanos;
+            pending = count > 0;
+        }
+
+        if (bitmap != null) {
+            // Jitter: desvio entre o intervalo exibido e o intervalo médio do stream
+            long jitterNanos = -1;
+            long sinceLastPresent = frameTimeNanos - lastPresentNanos;
+            if (lastPresentNanos != 0 && sinceLastPresent < 4 * interval) {
+                jitterNanos = Math.abs(sinceLastPresent - interval);
+            }
+            lastPresentNanos = frameTimeNanos;
+            metrics.onFramePresented(jitterNanos, frameTimeNanos - due > vsyncNanos);
+
+            FrameRenderer renderer = target;
+            if (renderer != null) {
+                renderer.onFrameReady(bitmap);
+            } else {
+                decoder.releaseBitmap(bitmap);
+            }
+        }
+
+        if (pending) {
+            callbackPosted = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void attach() {
+        choreographer = Choreographer.getInstance();
+        lastVsyncNanos = 0;
+        lastPresentNanos = 0;
+        detached = false;
+    }
+
+    @Override
+    public void onResume() {}
+
+    @Override
+    public void onPause() {}
+
+    @Override
+    public void detach() {
+        detached = true;
+        mainHandler.removeCallbacks(scheduleRunnable);
+        schedulePosted.set(false);
+        if (callbackPosted) {
+            choreographer.removeFrameCallback(this);
+            callbackPosted = false;
+        }
+        clearQueue();
+    }
+
+    private void clearQueue() {
+        synchronized (queueLock) {
+            while (count > 0) {
+                decoder.releaseBitmap(queuedBitmaps[head]);
+                queuedBitmaps[head] = null;
+                head = (head + 1) % QUEUE_CAPACITY;
+                count--;
+            }
+            lastArrivalNanos = 0;
+            lastDueNanos = 0;
+        }
+    }
+}
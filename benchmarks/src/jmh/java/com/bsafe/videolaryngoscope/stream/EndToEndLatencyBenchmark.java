@@ -0,0 +1,102 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Latência do último pacote enviado até o frame chegar ao sink, passando pelo
+ * {@link StreamReceiver} real (UDP em loopback, selector, assembler).
+ *
+ * No app o sink é o {@code onFrame} do StreamService, que entrega o frame à
+ * gravação e ao FrameDecoder; aqui ele apenas registra o número do frame. Os
+ * percentis p50/p90/p99 saem do modo {@link Mode#SampleTime}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndLatencyBenchmark {
+
+    private static final long DELIVERY_DEADLINE_NANOS = 100_000_000L;
+
+    private PacketStreams.Stream stream;
+    private StreamReceiver receiver;
+    private DatagramChannel sender;
+    private ByteBuffer packet;
+
+    private volatile int lastDelivered = -1;
+    private int frame;
+    private int frameNum;
+    private long timeouts;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        stream = PacketStreams.packetize(PacketStreams.loadFrames(), PacketStreams.Pattern.IN_ORDER);
+        packet = ByteBuffer.allocateDirect(FrameAssembler.HEADER_SIZE + FrameAssembler.MAX_PAYLOAD);
+
+        FrameBufferPool pool = new FrameBufferPool(8, 384 * 1024);
+        FrameAssembler assembler = new FrameAssembler(pool, f -> {
+            lastDelivered = f.getFrameNumber();
+            f.release();
+        }, 3, 80);
+
+        receiver = new StreamReceiver(0, assembler, 1000);
+        receiver.open();
+        receiver.start();
+
+        sender = DatagramChannel.open();
+        sender.connect(new InetSocketAddress("127.0.0.1", receiver.getLocalPort()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        receiver.stop();
+        sender.close();
+        if (timeouts > 0) {
+            System.out.println("Frames não entregues em 100 ms: " + timeouts);
+        }
+    }
+
+    @Benchmark
+    public int sendFrameAndAwait() throws IOException {
+        int expected = frameNum;
+        stream.setFrameNumber(frame, expected);
+        for (int p = stream.frameStart[frame]; p < stream.frameStart[frame + 1]; p++) {
+            packet.clear();
+            packet.put(stream.packets[p], 0, stream.lengths[p]).flip();
+            sender.write(packet);
+        }
+
+        long deadline = System.nanoTime() + DELIVERY_DEADLINE_NANOS;
+        while (lastDelivered != expected) {
+            if (System.nanoTime() - deadline > 0) {
+                timeouts++;
+                break;
+            }
+            LockSupport.parkNanos(1_000);
+        }
+
+        frameNum = (frameNum + 1) & 0xFFFF;
+        frame = (frame + 1) % stream.frames;
+        return expected;
+    }
+}
@@ -0,0 +1,115 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remontagem: pacotes -> {@link FrameAssembler} -> frame no pool -> sink.
+ *
+ * Cada operação entrega os pacotes de um frame, então ops/s são frames/s e
+ * {@code gc.alloc.rate.norm} são os bytes alocados por frame (deve ser 0). Os
+ * contadores auxiliares dão pacotes/s e frames efetivamente entregues.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameAssemblerBenchmark {
+
+    private static final long FRAME_INTERVAL_NANOS = 33_333_333L;
+
+    @Param({"IN_ORDER", "REORDERED", "LOSSY"})
+    public PacketStreams.Pattern pattern;
+
+    private PacketStreams.Stream stream;
+    private ByteBuffer directPacket;
+    private FrameAssembler assembler;
+    private long framesDelivered;
+    private int frame;
+    private int frameNum;
+    private long nowNanos;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long packets;
+        public long framesDelivered;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            packets = 0;
+            framesDelivered = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        stream = PacketStreams.packetize(PacketStreams.loadFrames(), pattern);
+        directPacket = ByteBuffer.allocateDirect(FrameAssembler.HEADER_SIZE + FrameAssembler.MAX_PAYLOAD);
+
+        FrameBufferPool pool = new FrameBufferPool(8, 384 * 1024);
+        assembler = new FrameAssembler(pool, f -> {
+            framesDelivered++;
+            f.release();
+        }, 3, 80);
+    }
+
+    /**
+     * Caminho do app: pacote em {@link ByteBuffer} direto, como entregue pelo receptor NIO.
+     */
+    @Benchmark
+    public long assembleFrameDirect(Counters counters) {
+        int first = nextFrame();
+        int end = stream.frameStart[frame + 1];
+        for (int p = first; p < end; p++) {
+            directPacket.clear();
+            directPacket.put(stream.packets[p], 0, stream.lengths[p]).flip();
+            assembler.onPacket(directPacket, nowNanos);
+        }
+        return finishFrame(counters, end - first);
+    }
+
+    /**
+     * Variante com pacotes em {@code byte[]}.
+     */
+    @Benchmark
+    public long assembleFrameArray(Counters counters) {
+        int first = nextFrame();
+        int end = stream.frameStart[frame + 1];
+        for (int p = first; p < end; p++) {
+            assembler.onPacket(stream.packets[p], stream.lengths[p], nowNanos);
+        }
+        return finishFrame(counters, end - first);
+    }
+
+    private int nextFrame() {
+        stream.setFrameNumber(frame, frameNum);
+        nowNanos += FRAME_INTERVAL_NANOS;
+        return stream.frameStart[frame];
+    }
+
+    private long finishFrame(Counters counters, int packets) {
+        counters.packets += packets;
+        counters.framesDelivered = framesDelivered;
+        frameNum = (frameNum + 1) & 0xFFFF;
+        frame = (frame + 1) % stream.frames;
+        return framesDelivered;
+    }
+}
@@ -0,0 +1,79 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verificações de marcadores JPEG feitas por frame: SOI (FFD8) no início, EOI
+ * (FFD9) no fim e leitura das dimensões no SOF.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JpegMarkerBenchmark {
+
+    private FrameBufferPool pool;
+    private FrameBuffer[] frames;
+    private final int[] size = new int[2];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[][] jpegs = PacketStreams.loadFrames();
+        int count = Math.min(16, jpegs.length);
+        pool = new FrameBufferPool(count, 384 * 1024);
+        frames = new FrameBuffer[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = PacketStreams.toFrameBuffer(pool, jpegs[i], 0);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (FrameBuffer frame : frames) {
+            frame.release();
+        }
+    }
+
+    private FrameBuffer nextFrame() {
+        FrameBuffer frame = frames[next];
+        next = (next + 1) % frames.length;
+        return frame;
+    }
+
+    @Benchmark
+    public boolean startsWithSoi() {
+        return nextFrame().startsWithSoi();
+    }
+
+    @Benchmark
+    public boolean endsWithEoi() {
+        FrameBuffer frame = nextFrame();
+        byte[] data = frame.getData();
+        int end = frame.getLength();
+        return (data[end - 2] & 0xFF) == 0xFF && (data[end - 1] & 0xFF) == JpegUtils.MARKER_EOI;
+    }
+
+    @Benchmark
+    public int readSize() {
+        FrameBuffer frame = nextFrame();
+        JpegUtils.readSize(frame.getData(), frame.getLength(), size);
+        return size[0];
+    }
+}
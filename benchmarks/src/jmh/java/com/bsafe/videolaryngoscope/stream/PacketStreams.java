@@ -0,0 +1,188 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Fluxos de pacotes no formato do dispositivo para os benchmarks.
+ *
+ * Os JPEGs vêm de uma gravação real (propriedade {@code bsafe.recording},
+ * .avi ou .mjpeg) ou são sintéticos, com tamanhos variando em torno de um
+ * frame típico do videolaringoscópio. Cada frame é fatiado em pacotes de
+ * {@link FrameAssembler#MAX_PAYLOAD} bytes com o header de 8 bytes.
+ */
+final class PacketStreams {
+
+    static final String RECORDING_PROPERTY = "bsafe.recording";
+
+    private static final int MAX_FRAMES = 300;
+    private static final int SYNTHETIC_FRAME_SIZE = 60 * 1024;
+    private static final long SEED = 42;
+
+    /**
+     * Ordem de chegada dos pacotes.
+     */
+    enum Pattern {
+        IN_ORDER,   // Como no Wi-Fi limpo
+        REORDERED,  // 5% dos pacotes trocados com o vizinho
+        LOSSY       // 1% de perda
+    }
+
+    /**
+     * Pacotes prontos para o assembler; {@link #frameStart} indexa o primeiro
+     * pacote de cada frame ({@code frameStart[frames]} = total de pacotes).
+     */
+    static final class Stream {
+        final byte[][] packets;
+        final int[] lengths;
+        final int[] frameStart;
+        final int frames;
+        final long payloadBytes;
+
+        Stream(byte[][] packets, int[] lengths, int[] frameStart, int frames, long payloadBytes) {
+            this.packets = packets;
+            this.lengths = lengths;
+            this.frameStart = frameStart;
+            this.frames = frames;
+            this.payloadBytes = payloadBytes;
+        }
+
+        /**
+         * Renumera os pacotes do frame {@code frame} como {@code frameNum}, para
+         * que o fluxo possa ser repetido sem que o assembler o veja como antigo.
+         */
+        void setFrameNumber(int frame, int frameNum) {
+            for (int p = frameStart[frame]; p < frameStart[frame + 1]; p++) {
+                packets[p][0] = (byte) (frameNum >> 8);
+                packets[p][1] = (byte) frameNum;
+            }
+        }
+    }
+
+    private PacketStreams() {}
+
+    static byte[][] loadFrames() throws IOException {
+        String recording = System.getProperty(RECORDING_PROPERTY, "");
+        return recording.isEmpty() ? syntheticFrames() : recordedFrames(new File(recording));
+    }
+
+    static Stream packetize(byte[][] frames, Pattern pattern) {
+        Random random = new Random(SEED);
+        int total = 0;
+        for (byte[] frame : frames) {
+            total += packetCount(frame.length);
+        }
+
+        byte[][] packets = new byte[total][];
+        int[] lengths = new int[total];
+        int[] frameStart = new int[frames.length + 1];
+        long payloadBytes = 0;
+        int count = 0;
+
+        for (int f = 0; f < frames.length; f++) {
+            frameStart[f] = count;
+            byte[] frame = frames[f];
+            int first = count;
+
+            for (int idx = 0; idx < packetCount(frame.length); idx++) {
+                int offset = idx * FrameAssembler.MAX_PAYLOAD;
+                int payload = Math.min(FrameAssembler.MAX_PAYLOAD, frame.length - offset);
+                if (pattern == Pattern.LOSSY && random.nextDouble() < 0.01) continue;
+
+                byte[] packet = new byte[FrameAssembler.HEADER_SIZE + payload];
+                packet[3] = (byte) idx;
+                System.arraycopy(frame, offset, packet, FrameAssembler.HEADER_SIZE, payload);
+                packets[count] = packet;
+                lengths[count] = packet.length;
+                payloadBytes += payload;
+                count++;
+            }
+
+            if (pattern == Pattern.REORDERED) {
+                for (int p = first; p + 1 < count; p++) {
+                    if (random.nextDouble() < 0.05) {
+                        swap(packets, lengths, p, p + 1);
+                        p++;
+                    }
+                }
+            }
+        }
+        frameStart[frames.length] = count;
+
+        return new Stream(packets, lengths, frameStart, frames.length, payloadBytes);
+    }
+
+    /**
+     * Copia o frame para um {@link FrameBuffer} do pool, como o assembler faz.
+     */
+    static FrameBuffer toFrameBuffer(FrameBufferPool pool, byte[] jpeg, long timestampNanos) {
+        FrameBuffer buffer = pool.acquire();
+        if (buffer == null) {
+            throw new IllegalStateException("Pool esgotado");
+        }
+        buffer.append(jpeg, 0, jpeg.length);
+        buffer.timestampNanos = timestampNanos;
+        return buffer;
+    }
+
+    private static int packetCount(int frameLength) {
+        return (frameLength + FrameAssembler.MAX_PAYLOAD - 1) / FrameAssembler.MAX_PAYLOAD;
+    }
+
+    private static void swap(byte[][] packets, int[] lengths, int a, int b) {
+        byte[] packet = packets[a];
+        packets[a] = packets[b];
+        packets[b] = packet;
+        int length = lengths[a];
+        lengths[a] = lengths[b];
+        lengths[b] = length;
+    }
+
+    private static byte[][] recordedFrames(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            RecordingIndex index = RecordingIndex.load(channel);
+            int count = Math.min(MAX_FRAMES, index.getFrameCount());
+            if (count == 0) {
+                throw new IOException("Gravação sem frames: " + file);
+            }
+
+            byte[][] frames = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                ByteBuffer frame = ByteBuffer.allocate(index.getLength(i));
+                index.readFrame(channel, i, frame);
+                frames[i] = frame.array();
+            }
+            return frames;
+        }
+    }
+
+    /**
+     * JPEGs sintéticos (SOI, SOF0 640x480, dados sem 0xFF, EOI) com tamanho
+     * de ±25% em torno de {@link #SYNTHETIC_FRAME_SIZE}.
+     */
+    private static byte[][] syntheticFrames() {
+        Random random = new Random(SEED);
+        byte[] sof = {(byte) 0xFF, (byte) 0xC0, 0, 11, 8, 0x01, (byte) 0xE0, 0x02, (byte) 0x80, 1, 1, 0x11, 0};
+
+        byte[][] frames = new byte[MAX_FRAMES][];
+        for (int i = 0; i < MAX_FRAMES; i++) {
+            int size = SYNTHETIC_FRAME_SIZE * 3 / 4 + random.nextInt(SYNTHETIC_FRAME_SIZE / 2);
+            byte[] frame = new byte[size];
+            frame[0] = (byte) 0xFF;
+            frame[1] = (byte) JpegUtils.MARKER_SOI;
+            System.arraycopy(sof, 0, frame, 2, sof.length);
+            for (int j = 2 + sof.length; j < size - 2; j++) {
+                frame[j] = (byte) random.nextInt(0xFF);
+            }
+            frame[size - 2] = (byte) 0xFF;
+            frame[size - 1] = (byte) JpegUtils.MARKER_EOI;
+            frames[i] = frame;
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,103 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Gravação de {@link #FRAMES} frames em AVI pelo {@link RecordingWriter},
+ * incluindo o encerramento (idx1 e cabeçalho). ops/s são frames/s gravados
+ * em disco; o contador auxiliar dá os bytes do arquivo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordingWriterBenchmark {
+
+    private static final int FRAMES = 300;
+
+    private FrameBufferPool pool;
+    private FrameBuffer[] frames;
+    private File file;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long bytesWritten;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesWritten = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[][] jpegs = PacketStreams.loadFrames();
+        int count = Math.min(16, jpegs.length);
+        pool = new FrameBufferPool(count, 384 * 1024);
+        frames = new FrameBuffer[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = PacketStreams.toFrameBuffer(pool, jpegs[i], 0);
+        }
+        file = File.createTempFile("bench", ".avi");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (FrameBuffer frame : frames) {
+            frame.release();
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long recordFrames(Counters counters) throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
+        IOException[] failure = new IOException[1];
+        RecordingWriter writer = new RecordingWriter(file, (w, error) -> {
+            failure[0] = error;
+            finished.countDown();
+        });
+        writer.start();
+
+        long frameIntervalNanos = 33_333_333L;
+        for (int i = 0; i < FRAMES; i++) {
+            FrameBuffer frame = frames[i % frames.length];
+            frame.timestampNanos = i * frameIntervalNanos;
+            // Anel cheio: aguarda o disco em vez de medir descartes
+            while (!writer.submit(frame)) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+
+        writer.stop();
+        finished.await();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        counters.bytesWritten += writer.getBytesWritten();
+        return writer.getBytesWritten();
+    }
+}
@@ -0,0 +1,239 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Layout AVI (RIFF, MJPEG) usado nas gravações, escrito em fluxo.
+ *
+ * <pre>
+ * RIFF 'AVI '
+ *   LIST 'hdrl' { avih, LIST 'strl' { strh 'vids'/'MJPG', strf BITMAPINFOHEADER } }
+ *   LIST 'movi' { '00dc' JPEG [pad] ... }
+ *   idx1        { '00dc' | AVIIF_KEYFRAME | offset relativo a 'movi' | tamanho } × N
+ *   bsts        { i64 início (epoch ms) | i64 timestamp µs × N }
+ * </pre>
+ *
+ * O header tem tamanho fixo e é escrito no primeiro frame com tamanhos zerados;
+ * os frames são anexados à medida que chegam. Ao encerrar, {@link #finish}
+ * anexa o índice e corrige os campos de tamanho e cadência no header, sem
+ * reescrever os JPEGs. O chunk 'bsts' guarda os timestamps reais de cada frame
+ * e é ignorado pelos players. Se a gravação for interrompida, {@link #recover}
+ * reconstrói o índice varrendo o 'movi'.
+ */
+public final class AviMuxer {
+
+    private static final String TAG = "AviMuxer";
+
+    public static final int HEADER_SIZE = 224;
+    public static final int CHUNK_HEADER_SIZE = 8;
+    public static final int INDEX_ENTRY_SIZE = 16;
+
+    // Posição do fourcc 'movi': referência dos offsets do idx1
+    public static final int MOVI_FOURCC_OFFSET = 220;
+
+    // AVI 1.0 usa offsets de 32 bits; limite conservador para todos os players
+    public static final long MAX_FILE_SIZE = 1L << 30;
+
+    public static final int DEFAULT_FRAME_INTERVAL_US = 33_333;
+
+    static final int FOURCC_RIFF = fourCc("RIFF");
+    static final int FOURCC_AVI = fourCc("AVI ");
+    static final int FOURCC_LIST = fourCc("LIST");
+    static final int FOURCC_MOVI = fourCc("movi");
+    static final int FOURCC_IDX1 = fourCc("idx1");
+    static final int FOURCC_FRAME = fourCc("00dc");
+    static final int FOURCC_TIMESTAMPS = fourCc("bsts");
+
+    private static final int AVIF_HASINDEX = 0x10;
+    private static final int AVIIF_KEYFRAME = 0x10;
+
+    // Offsets dos campos corrigidos em finish()
+    private static final int RIFF_SIZE_OFFSET = 4;
+    static final int AVIH_US_PER_FRAME_OFFSET = 32;
+    private static final int AVIH_MAX_BYTES_PER_SEC_OFFSET = 36;
+    private static final int AVIH_TOTAL_FRAMES_OFFSET = 48;
+    private static final int AVIH_SUGGESTED_BUFFER_OFFSET = 60;
+    private static final int STRH_SCALE_OFFSET = 128;
+    private static final int STRH_RATE_OFFSET = 132;
+    private static final int STRH_LENGTH_OFFSET = 140;
+    private static final int STRH_SUGGESTED_BUFFER_OFFSET = 144;
+    static final int MOVI_SIZE_OFFSET = 216;
+
+    private AviMuxer() {}
+
+    /**
+     * Escreve o header em {@code dst[0..HEADER_SIZE)} com tamanhos zerados.
+     */
+    static void putHeader(byte[] dst, int width, int height) {
+        ByteBuffer b = ByteBuffer.wrap(dst, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(FOURCC_RIFF).putInt(0).putInt(FOURCC_AVI);
+
+        b.putInt(FOURCC_LIST).putInt(192).putInt(fourCc("hdrl"));
+        b.putInt(fourCc("avih")).putInt(56);
+        b.putInt(DEFAULT_FRAME_INTERVAL_US); // dwMicroSecPerFrame
+        b.putInt(0);                         // dwMaxBytesPerSec
+        b.putInt(0);                         // dwPaddingGranularity
+        b.putInt(AVIF_HASINDEX);             // dwFlags
+        b.putInt(0);                         // dwTotalFrames
+        b.putInt(0);                         // dwInitialFrames
+        b.putInt(1);                         // dwStreams
+        b.putInt(0);                         // dwSuggestedBufferSize
+        b.putInt(width).putInt(height);
+        b.putInt(0).putInt(0).putInt(0).putInt(0);
+
+        b.putInt(FOURCC_LIST).putInt(116).putInt(fourCc("strl"));
+        b.putInt(fourCc("strh")).putInt(56);
+        b.putInt(fourCc("vids")).putInt(fourCc("MJPG"));
+        b.putInt(0);                          // dwFlags
+        b.putShort((short) 0).putShort((short) 0);
+        b.putInt(0);                          // dwInitialFrames
+        b.putInt(DEFAULT_FRAME_INTERVAL_US);  // dwScale
+        b.putInt(1_000_000);                  // dwRate: fps = rate / scale
+        b.putInt(0);                          // dwStart
+        b.putInt(0);                          // dwLength
+        b.putInt(0);                          // dwSuggestedBufferSize
+        b.putInt(-1);                         // dwQuality
+        b.putInt(0);                          // dwSampleSize
+        b.putShort((short) 0).putShort((short) 0)
+                .putShort((short) width).putShort((short) height);
+
+        b.putInt(fourCc("strf")).putInt(40);
+        b.putInt(40).putInt(width).putInt(height);
+        b.putShort((short) 1).putShort((short) 24);
+        b.putInt(fourCc("MJPG")).putInt(width * height * 3);
+        b.putInt(0).putInt(0).putInt(0).putInt(0);
+
+        b.putInt(FOURCC_LIST).putInt(0).putInt(FOURCC_MOVI);
+    }
+
+    /**
+     * Header do chunk de um frame; frames de tamanho ímpar levam 1 byte de padding.
+     */
+    static void putChunkHeader(byte[] dst, int length) {
+        putIntLE(dst, 0, FOURCC_FRAME);
+        putIntLE(dst, 4, length);
+    }
+
+    static int paddedLength(int length) {
+        return length + (length & 1);
+    }
+
+    /**
+     * Anexa idx1 e timestamps em {@code moviEnd} e corrige o header. Os offsets
+     * são absolutos no arquivo e apontam para o início do JPEG.
+     */
+    static void finish(FileChannel channel, long moviEnd, long startTimeMillis,
+                       long[] offsets, int[] lengths, long[] timestampsUs, int count)
+            throws IOException {
+        int indexSize = count * INDEX_ENTRY_SIZE;
+        int timestampsSize = 8 + count * 8;
+        ByteBuffer trailer = ByteBuffer.allocate(2 * CHUNK_HEADER_SIZE + indexSize + timestampsSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        int maxLength = 0;
+        long totalBytes = 0;
+        trailer.putInt(FOURCC_IDX1).putInt(indexSize);
+        for (int i = 0; i < count; i++) {
+            trailer.putInt(FOURCC_FRAME);
+            trailer.putInt(AVIIF_KEYFRAME);
+            trailer.putInt((int) (offsets[i] - CHUNK_HEADER_SIZE - MOVI_FOURCC_OFFSET));
+            trailer.putInt(lengths[i]);
+            maxLength = Math.max(maxLength, lengths[i]);
+            totalBytes += lengths[i];
+        }
+        trailer.putInt(FOURCC_TIMESTAMPS).putInt(timestampsSize);
+        trailer.putLong(startTimeMillis);
+        for (int i = 0; i < count; i++) {
+            trailer.putLong(timestampsUs[i]);
+        }
+        trailer.flip();
+        writeFully(channel, trailer, moviEnd);
+
+        // Cadência média real; o stream não tem taxa fixa
+        long durationUs = count > 1 ? timestampsUs[count - 1] - timestampsUs[0] : 0;
+        int usPerFrame = count > 1 && durationUs > 0
+                ? (int) Math.max(1, durationUs / (count - 1))
+                : DEFAULT_FRAME_INTERVAL_US;
+        long bytesPerSec = durationUs > 0 ? totalBytes * 1_000_000L / durationUs : 0;
+        long fileEnd = moviEnd + trailer.limit();
+
+        patch(channel, RIFF_SIZE_OFFSET, (int) (fileEnd - 8));
+        patch(channel, AVIH_US_PER_FRAME_OFFSET, usPerFrame);
+        patch(channel, AVIH_MAX_BYTES_PER_SEC_OFFSET, (int) Math.min(Integer.MAX_VALUE, bytesPerSec));
+        patch(channel, AVIH_TOTAL_FRAMES_OFFSET, count);
+        patch(channel, AVIH_SUGGESTED_BUFFER_OFFSET, maxLength + CHUNK_HEADER_SIZE);
+        patch(channel, STRH_SCALE_OFFSET, usPerFrame);
+        patch(channel, STRH_RATE_OFFSET, 1_000_000);
+        patch(channel, STRH_LENGTH_OFFSET, count);
+        patch(channel, STRH_SUGGESTED_BUFFER_OFFSET, maxLength + CHUNK_HEADER_SIZE);
+        patch(channel, MOVI_SIZE_OFFSET, (int) (moviEnd - MOVI_FOURCC_OFFSET));
+    }
+
+    /**
+     * Finaliza um AVI cuja gravação foi interrompida: varre o 'movi', descarta
+     * o último frame se estiver incompleto e grava índice e header. Retorna
+     * false se o arquivo já estava finalizado ou não é uma gravação AVI.
+     */
+    public static boolean recover(File file) throws IOException {
+        // RandomAccessFile em vez de java.nio.file, que só existe a partir da API 26
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE) return false;
+
+            RecordingIndex index = RecordingIndex.load(channel);
+            if (index.getVersion() != RecordingIndex.VERSION_AVI || !index.isRebuilt()) {
+                return false;
+            }
+
+            int count = index.getFrameCount();
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            long[] timestamps = new long[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = index.getOffset(i);
+                lengths[i] = index.getLength(i);
+                timestamps[i] = index.getTimestampUs(i);
+            }
+
+            // Sem timestamps gravados: estima o início pela data de modificação
+            long startTimeMillis = file.lastModified() - index.getDurationUs() / 1000;
+
+            channel.truncate(index.getDataEnd());
+            finish(channel, index.getDataEnd(), startTimeMillis,
+                    offsets, lengths, timestamps, count);
+            channel.force(true);
+
+            StreamLog.i(TAG, "Gravação recuperada: " + file.getName() + " (" + count + " frames)");
+            return true;
+        }
+    }
+
+    private static void patch(FileChannel channel, long position, int value) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(0, value);
+        writeFully(channel, b, position);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long position)
+            throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src, position + src.position());
+        }
+    }
+
+    static void putIntLE(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >> 8);
+        dst[offset + 2] = (byte) (value >> 16);
+        dst[offset + 3] = (byte) (value >> 24);
+    }
+
+    static int fourCc(String code) {
+        return code.charAt(0) | (code.charAt(1) << 8) | (code.charAt(2) << 16) | (code.charAt(3) << 24);
+    }
+}
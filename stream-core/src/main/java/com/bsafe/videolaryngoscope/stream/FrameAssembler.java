@@ -0,0 +1,421 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Janela de remontagem de frames com tolerância a reordenação.
+ *
+ * Cada pacote de vídeo tem um header de 8 bytes: bytes 0-1 = número do frame,
+ * byte 3 = índice do pacote dentro do frame. O assembler mantém alguns frames
+ * abertos ao mesmo tempo, posiciona cada pacote pelo índice e entrega o frame
+ * quando todos os pacotes até o que termina em FFD9 chegaram, ou o descarta
+ * quando o prazo expira. Pacotes atrasados do frame anterior ainda são aceitos
+ * enquanto ele estiver na janela.
+ *
+ * Um frame incompleto ainda pode ser aproveitado: se o JPEG usa marcadores de
+ * restart, os pacotes contíguos desde o primeiro são cortados no último
+ * marcador antes da primeira lacuna e recebem um EOI sintético, e a imagem é
+ * exibida com a parte inferior vazia. Sem marcadores o frame é descartado e a
+ * tela continua no último frame bom.
+ *
+ * Não é thread-safe: deve ser usado apenas pela thread receptora. Os contadores
+ * podem ser lidos de qualquer thread.
+ */
+public final class FrameAssembler {
+
+    /**
+     * Recebe frames completos. A referência do {@link FrameBuffer} passa para o sink.
+     */
+    public interface FrameSink {
+        void onFrame(FrameBuffer frame);
+    }
+
+    public static final int HEADER_SIZE = 8;
+    public static final int MAX_PACKETS = 256;            // packetIdx ocupa 1 byte
+    public static final int MAX_PAYLOAD = 1500 - HEADER_SIZE;
+
+    // Saltos maiores que isso para trás indicam que o dispositivo reiniciou a contagem
+    private static final int RESYNC_DISTANCE = 64;
+
+    private static final byte[] EOI = {(byte) 0xFF, (byte) JpegUtils.MARKER_EOI};
+
+    private final Slot[] slots;
+    private final FrameBufferPool pool;
+    private final FrameSink sink;
+    private final StreamMetrics metrics;
+    private final long deadlineNanos;
+
+    private int newestFrameNum = -1;
+    private boolean salvageEnabled = true;
+
+    // Estatísticas
+    private volatile long framesCompleted;
+    private volatile long framesDropped;
+    private volatile long framesSalvaged;
+    private volatile long packetsLost;
+    private volatile long packetsReordered;
+    private volatile long packetsLate;
+    private volatile long packetsDuplicated;
+
+    public FrameAssembler(FrameBufferPool pool, FrameSink sink, int windowSize, long deadlineMs) {
+        this(pool, sink, windowSize, deadlineMs, new StreamMetrics());
+    }
+
+    public FrameAssembler(FrameBufferPool pool, FrameSink sink, int windowSize, long deadlineMs,
+                          StreamMetrics metrics) {
+        this.pool = pool;
+        this.sink = sink;
+        this.metrics = metrics;
+        this.deadlineNanos = deadlineMs * 1_000_000L;
+        this.slots = new Slot[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Liga ou desliga o aproveitamento de frames incompletos (padrão: ligado).
+     */
+    public void setSalvageEnabled(boolean enabled) {
+        salvageEnabled = enabled;
+    }
+
+    /**
+     * Processa um pacote bruto (header + payload).
+     */
+    public void onPacket(byte[] data, int length, long nowNanos) {
+        if (length <= HEADER_SIZE || length - HEADER_SIZE > MAX_PAYLOAD) return;
+
+        int frameNum = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+        int packetIdx = data[3] & 0xFF;
+
+        Slot slot = slotFor(frameNum, packetIdx, nowNanos);
+        if (slot == null) return;
+
+        int payloadLength = length - HEADER_SIZE;
+        System.arraycopy(data, HEADER_SIZE, slot.payload, packetIdx * MAX_PAYLOAD, payloadLength);
+        accept(slot, frameNum, packetIdx, payloadLength);
+    }
+
+    /**
+     * Processa um pacote entre position e limit do buffer (ex.: ByteBuffer direto
+     * do receptor NIO). O payload é copiado uma única vez, direto para a janela.
+     */
+    public void onPacket(ByteBuffer packet, long nowNanos) {
+        int start = packet.position();
+        int length = packet.remaining();
+        if (length <= HEADER_SIZE || length - HEADER_SIZE > MAX_PAYLOAD) return;
+
+        int frameNum = ((packet.get(start) & 0xFF) << 8) | (packet.get(start + 1) & 0xFF);
+        int packetIdx = packet.get(start + 3) & 0xFF;
+
+        Slot slot = slotFor(frameNum, packetIdx, nowNanos);
+        if (slot == null) return;
+
+        int payloadLength = length - HEADER_SIZE;
+        packet.position(start + HEADER_SIZE);
+        packet.get(slot.payload, packetIdx * MAX_PAYLOAD, payloadLength);
+        accept(slot, frameNum, packetIdx, payloadLength);
+    }
+
+    /**
+     * Localiza (ou abre) o frame do pacote. Retorna null se o pacote deve ser ignorado.
+     */
+    private Slot slotFor(int frameNum, int packetIdx, long nowNanos) {
+        expire(nowNanos);
+
+        Slot slot = findSlot(frameNum);
+        if (slot == null) {
+            slot = openSlot(frameNum, packetIdx, nowNanos);
+            if (slot == null) {
+                packetsLate++;
+                return null;
+            }
+        }
+
+        if (slot.lengths[packetIdx] != 0) {
+            packetsDuplicated++;
+            return null;
+        }
+        return slot;
+    }
+
+    private void accept(Slot slot, int frameNum, int packetIdx, int payloadLength) {
+        slot.lengths[packetIdx] = payloadLength;
+        slot.received++;
+        slot.totalBytes += payloadLength;
+
+        if (packetIdx < slot.highestIndex || frameNum != newestFrameNum) {
+            slot.reordered++;
+        }
+        if (packetIdx > slot.highestIndex) {
+            slot.highestIndex = packetIdx;
+        }
+
+        // Fim do JPEG (FFD9) marca o último pacote do frame
+        int end = packetIdx * MAX_PAYLOAD + payloadLength;
+        if (payloadLength >= 2
+                && (slot.payload[end - 2] & 0xFF) == 0xFF
+                && (slot.payload[end - 1] & 0xFF) == 0xD9) {
+            slot.lastIndex = packetIdx;
+        }
+
+        if (slot.isComplete()) {
+            dropOlderThan(slot);
+            emit(slot);
+        }
+    }
+
+    /**
+     * Descarta frames cujo prazo já passou. Chamado a cada pacote e pode ser
+     * chamado periodicamente quando o stream está ocioso.
+     */
+    public void expire(long nowNanos) {
+        for (Slot slot : slots) {
+            if (slot.active && nowNanos - slot.firstPacketNanos > deadlineNanos) {
+                drop(slot, StreamMetrics.DropReason.INCOMPLETE);
+            }
+        }
+    }
+
+    /**
+     * Descarta todos os frames pendentes (desconexão).
+     */
+    public void reset() {
+        for (Slot slot : slots) {
+            if (slot.active) {
+                slot.clear();
+            }
+        }
+        newestFrameNum = -1;
+    }
+
+    private Slot findSlot(int frameNum) {
+        for (Slot slot : slots) {
+            if (slot.active && slot.frameNum == frameNum) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private Slot openSlot(int frameNum, int packetIdx, long nowNanos) {
+        if (newestFrameNum >= 0) {
+            int distance = (short) (frameNum - newestFrameNum);
+            // Frame antigo já entregue ou expirado. Exceção: o dispositivo
+            // reaproveitou o número do frame (novo pacote 0) ou reiniciou a contagem.
+            boolean reused = distance == 0 && packetIdx == 0;
+            if (distance <= 0 && !reused && distance > -RESYNC_DISTANCE) {
+                return null;
+            }
+            if (distance < 0 || reused) {
+                for (Slot slot : slots) {
+                    if (slot.active) drop(slot, StreamMetrics.DropReason.INCOMPLETE);
+                }
+            }
+        }
+
+        Slot target = null;
+        for (Slot slot : slots) {
+            if (!slot.active) {
+                target = slot;
+                break;
+            }
+            if (target == null || isOlder(slot.frameNum, target.frameNum)) {
+                target = slot;
+            }
+        }
+        if (target.active) {
+            drop(target, StreamMetrics.DropReason.INCOMPLETE); // Janela cheia: descarta o mais antigo
+        }
+
+        target.open(frameNum, nowNanos);
+        newestFrameNum = frameNum;
+        return target;
+    }
+
+    private void dropOlderThan(Slot completed) {
+        // Entrega em ordem: frames anteriores incompletos não serão mais exibidos
+        for (Slot slot : slots) {
+            if (slot != completed && slot.active && isOlder(slot.frameNum, completed.frameNum)) {
+                drop(slot, StreamMetrics.DropReason.INCOMPLETE);
+            }
+        }
+    }
+
+    private void emit(Slot slot) {
+        if (slot.totalBytes > pool.getBufferCapacity()) {
+            // Maior que qualquer JPEG do dispositivo: dado inválido, não falta de buffer
+            drop(slot, StreamMetrics.DropReason.CORRUPT);
+            return;
+        }
+        FrameBuffer frame = pool.acquire();
+        if (frame == null) {
+            drop(slot, StreamMetrics.DropReason.POOL_EXHAUSTED);
+            return;
+        }
+
+        for (int i = 0; i <= slot.lastIndex; i++) {
+            frame.append(slot.payload, i * MAX_PAYLOAD, slot.lengths[i]);
+        }
+        frame.frameNumber = slot.frameNum;
+        frame.timestampNanos = slot.firstPacketNanos;
+        frame.packetCount = slot.received;
+        frame.lostPackets = 0;
+        frame.reorderedPackets = slot.reordered;
+
+        framesCompleted++;
+        packetsReordered += slot.reordered;
+        slot.clear();
+
+        if (frame.startsWithSoi()) {
+            metrics.onFrameAssembled();
+            sink.onFrame(frame);
+        } else {
+            metrics.onFrameDropped(StreamMetrics.DropReason.CORRUPT);
+            frame.release();
+        }
+    }
+
+    private void drop(Slot slot, StreamMetrics.DropReason reason) {
+        int expected = slot.lastIndex >= 0 ? slot.lastIndex + 1 : slot.highestIndex + 1;
+        int missing = Math.max(0, expected - slot.received);
+        packetsLost += missing;
+        packetsReordered += slot.reordered;
+        metrics.onPacketGaps(missing);
+
+        if (reason == StreamMetrics.DropReason.INCOMPLETE && salvage(slot, missing)) {
+            slot.clear();
+            return;
+        }
+        framesDropped++;
+        metrics.onFrameDropped(reason);
+        slot.clear();
+    }
+
+    /**
+     * Entrega a parte intacta de um frame incompleto, cortada no último
+     * intervalo de restart antes da primeira lacuna. Retorna false se não há
+     * marcador de restart, header ou buffer livre.
+     */
+    private boolean salvage(Slot slot, int missing) {
+        if (!salvageEnabled) return false;
+        int intact = slot.intactPackets();
+        if (intact == 0) return false;
+
+        FrameBuffer frame = pool.acquire();
+        if (frame == null) return false;
+
+        boolean copied = true;
+        for (int i = 0; i < intact && copied; i++) {
+            copied = frame.append(slot.payload, i * MAX_PAYLOAD, slot.lengths[i]);
+        }
+        int cut = copied && frame.startsWithSoi()
+                ? JpegUtils.findLastRestartMarker(frame.data, frame.length) : -1;
+        if (cut < 0) {
+            frame.release();
+            return false;
+        }
+        frame.length = cut;
+        frame.append(EOI, 0, EOI.length);
+
+        frame.frameNumber = slot.frameNum;
+        frame.timestampNanos = slot.firstPacketNanos;
+        frame.packetCount = slot.received;
+        frame.lostPackets = missing;
+        frame.reorderedPackets = slot.reordered;
+        frame.salvaged = true;
+
+        framesSalvaged++;
+        metrics.onFrameSalvaged();
+        metrics.onFrameAssembled();
+        sink.onFrame(frame);
+        return true;
+    }
+
+    private static boolean isOlder(int frameNum, int other) {
+        return (short) (frameNum - other) < 0;
+    }
+
+    public long getFramesCompleted() {
+        return framesCompleted;
+    }
+
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * Frames incompletos entregues parcialmente (não entram em {@link #getFramesDropped()}).
+     */
+    public long getFramesSalvaged() {
+        return framesSalvaged;
+    }
+
+    public long getPacketsLost() {
+        return packetsLost;
+    }
+
+    public long getPacketsReordered() {
+        return packetsReordered;
+    }
+
+    public long getPacketsLate() {
+        return packetsLate;
+    }
+
+    public long getPacketsDuplicated() {
+        return packetsDuplicated;
+    }
+
+    /**
+     * Frame em remontagem. Os payloads ficam em posições fixas pelo índice do pacote.
+     */
+    private static final class Slot {
+        final byte[] payload = new byte[MAX_PACKETS * MAX_PAYLOAD];
+        final int[] lengths = new int[MAX_PACKETS];
+
+        boolean active;
+        int frameNum;
+        long firstPacketNanos;
+        int received;
+        int totalBytes;
+        int highestIndex;
+        int lastIndex;
+        int reordered;
+
+        void open(int frameNum, long nowNanos) {
+            this.active = true;
+            this.frameNum = frameNum;
+            this.firstPacketNanos = nowNanos;
+            this.received = 0;
+            this.totalBytes = 0;
+            this.highestIndex = -1;
+            this.lastIndex = -1;
+            this.reordered = 0;
+        }
+
+        boolean isComplete() {
+            return lastIndex >= 0 && received == lastIndex + 1;
+        }
+
+        /**
+         * Pacotes contíguos recebidos a partir do índice 0 (até a primeira lacuna).
+         */
+        int intactPackets() {
+            int count = 0;
+            while (count <= highestIndex && lengths[count] != 0) {
+                count++;
+            }
+            return count;
+        }
+
+        void clear() {
+            if (highestIndex >= 0) {
+                Arrays.fill(lengths, 0, highestIndex + 1, 0);
+            }
+            active = false;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffer reutilizável que carrega um frame JPEG completo.
+ *
+ * Os buffers pertencem a um {@link FrameBufferPool} e circulam por contagem
+ * de referências: quem recebe o frame chama {@link #retain()} se for guardá-lo
+ * e {@link #release()} quando terminar. Ao chegar a zero o buffer volta ao pool.
+ */
+public final class FrameBuffer {
+
+    final byte[] data;
+    int length;
+
+    // Metadados da remontagem
+    int frameNumber;
+    long timestampNanos; // Chegada do primeiro pacote (System.nanoTime)
+    int packetCount;
+    int lostPackets;
+    int reorderedPackets;
+    boolean salvaged;
+
+    private final FrameBufferPool pool;
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    FrameBuffer(FrameBufferPool pool, int capacity) {
+        this.pool = pool;
+        this.data = new byte[capacity];
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getCapacity() {
+        return data.length;
+    }
+
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * Momento da captura: chegada do primeiro pacote do frame, em {@link System#nanoTime()}.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public int getPacketCount() {
+        return packetCount;
+    }
+
+    public int getLostPackets() {
+        return lostPackets;
+    }
+
+    public int getReorderedPackets() {
+        return reorderedPackets;
+    }
+
+    /**
+     * Frame incompleto aproveitado até o último intervalo de restart intacto
+     * (EOI sintético); a parte inferior da imagem fica sem dados.
+     */
+    public boolean isSalvaged() {
+        return salvaged;
+    }
+
+    /**
+     * Acrescenta bytes ao frame. Retorna false se não couber no buffer.
+     */
+    boolean append(byte[] src, int offset, int count) {
+        if (length + count > data.length) {
+            return false;
+        }
+        System.arraycopy(src, offset, data, length, count);
+        length += count;
+        return true;
+    }
+
+    /**
+     * Verifica se o conteúdo começa com SOI (FFD8).
+     */
+    public boolean startsWithSoi() {
+        return length > 2
+                && (data[0] & 0xFF) == 0xFF
+                && (data[1] & 0xFF) == 0xD8;
+    }
+
+    void onAcquire() {
+        length = 0;
+        frameNumber = -1;
+        timestampNanos = 0;
+        packetCount = 0;
+        lostPackets = 0;
+        reorderedPackets = 0;
+        salvaged = false;
+        refCount.set(1);
+    }
+
+    public FrameBuffer retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("retain() em buffer já devolvido ao pool");
+        }
+        return this;
+    }
+
+    public void release() {
+        int remaining = refCount.decrementAndGet();
+        if (remaining == 0) {
+            pool.recycle(this);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("release() chamado mais vezes que retain()");
+        }
+    }
+}
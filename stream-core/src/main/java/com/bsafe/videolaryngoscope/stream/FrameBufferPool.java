@@ -0,0 +1,58 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool limitado de {@link FrameBuffer}s pré-alocados.
+ *
+ * Todos os buffers são criados no construtor; em regime permanente nenhum
+ * frame aloca memória. Se o pool esgotar (consumidor atrasado), {@link #acquire()}
+ * retorna null e o frame é descartado em vez de crescer o heap.
+ */
+public final class FrameBufferPool {
+
+    private final ArrayBlockingQueue<FrameBuffer> free;
+    private final int bufferCapacity;
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    public FrameBufferPool(int bufferCount, int bufferCapacity) {
+        this.bufferCapacity = bufferCapacity;
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            free.offer(new FrameBuffer(this, bufferCapacity));
+        }
+    }
+
+    /**
+     * Empresta um buffer vazio com uma referência, ou null se o pool estiver esgotado.
+     */
+    public FrameBuffer acquire() {
+        FrameBuffer buffer = free.poll();
+        if (buffer == null) {
+            exhaustedCount.incrementAndGet();
+            return null;
+        }
+        buffer.onAcquire();
+        return buffer;
+    }
+
+    void recycle(FrameBuffer buffer) {
+        free.offer(buffer);
+    }
+
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    public int getAvailableCount() {
+        return free.size();
+    }
+
+    /**
+     * Quantas vezes um frame foi descartado por falta de buffer livre.
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+}
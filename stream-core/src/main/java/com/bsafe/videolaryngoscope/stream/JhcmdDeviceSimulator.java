@@ -0,0 +1,376 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulador do videolaringoscópio para testes sem o hardware.
+ *
+ * Escuta comandos JHCMD na porta de controle, responde a cada um com o próprio
+ * comando (eco, desativável para imitar firmwares que não respondem) e, após {@code CMD_START_STREAM}, envia frames JPEG para a
+ * porta de dados de quem enviou o comando, no mesmo formato de pacotes do
+ * dispositivo. Taxa, tamanho dos frames, perda e reordenação são
+ * configuráveis. Cada frame leva no segmento COM o {@link System#nanoTime()}
+ * do envio, para medir latência no mesmo processo ({@link #readSendTimestamp}).
+ */
+public final class JhcmdDeviceSimulator {
+
+    private static final String TAG = "JhcmdSimulator";
+
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+
+    // SOI + COM com "BSIM" e o timestamp de envio
+    private static final byte[] TIMESTAMP_MAGIC = {'B', 'S', 'I', 'M'};
+    private static final int TIMESTAMP_SEGMENT_SIZE = 2 + 2 + TIMESTAMP_MAGIC.length + 8;
+    private static final int TIMESTAMP_OFFSET = 2 + 4 + TIMESTAMP_MAGIC.length;
+
+    public static final class Config {
+        public String bindHost = "127.0.0.1";
+        public int controlPort = JhcmdProtocol.CONTROL_PORT;
+        public int dataPort = JhcmdProtocol.DATA_PORT;
+
+        public int fps = 30;
+        public int frameSize = 60 * 1024;  // Ignorado se jpegTemplate for definido
+        public byte[] jpegTemplate;         // JPEG real a repetir (opcional)
+
+        public double lossRate = 0;         // Probabilidade de iniciar uma perda
+        public int lossBurst = 1;           // Pacotes consecutivos perdidos por evento
+        public double reorderRate = 0;      // Probabilidade de trocar dois pacotes vizinhos
+        public int restartInterval = 0;     // Bytes entre marcadores RST no JPEG sintético (0 = sem)
+        public boolean echoCommands = true; // false: firmware que não responde aos comandos
+        public long seed = 1;
+    }
+
+    private final Config config;
+    private final Random random;
+    private final byte[] packet = new byte[FrameAssembler.HEADER_SIZE + FrameAssembler.MAX_PAYLOAD];
+    private final byte[] heldPacket = new byte[packet.length];
+    private final DatagramPacket outgoing = new DatagramPacket(packet, 0);
+
+    private DatagramSocket controlSocket;
+    private DatagramSocket dataSocket;
+    private Thread controlThread;
+    private Thread streamThread;
+    private volatile boolean running = false;
+    private volatile SocketAddress streamTarget; // null = parado
+
+    private byte[] frame;
+    private int frameLength;
+    private int frameNum;
+    private int lossRemaining;
+
+    // Estatísticas
+    private volatile long commandsReceived;
+    private volatile long framesSent;
+    private volatile long packetsSent;
+    private volatile long packetsDropped;
+
+    public JhcmdDeviceSimulator(Config config) {
+        this.config = config;
+        this.random = new Random(config.seed);
+    }
+
+    public void start() throws IOException {
+        controlSocket = new DatagramSocket(new InetSocketAddress(config.bindHost, config.controlPort));
+        dataSocket = new DatagramSocket();
+        buildFrame();
+
+        running = true;
+        controlThread = new Thread(this::controlLoop);
+        controlThread.setName("SimControl");
+        controlThread.start();
+        streamThread = new Thread(this::streamLoop);
+        streamThread.setName("SimStream");
+        streamThread.start();
+        StreamLog.i(TAG, "Simulador na porta " + config.controlPort + ", " + config.fps
+                + " fps, frames de " + frameLength + " bytes");
+    }
+
+    public void stop() {
+        running = false;
+        streamTarget = null;
+        if (controlSocket != null) controlSocket.close();
+        if (dataSocket != null) dataSocket.close();
+        LockSupport.unpark(streamThread);
+        try {
+            if (controlThread != null) controlThread.join(1000);
+            if (streamThread != null) streamThread.join(1000);
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Para de enviar frames como se o dispositivo tivesse perdido a sessão; o
+     * stream só volta com um novo {@code CMD_START_STREAM}.
+     */
+    public void simulateStall() {
+        StreamLog.d(TAG, "Travamento simulado");
+        streamTarget = null;
+    }
+
+    private void controlLoop() {
+        byte[] buffer = new byte[64];
+        DatagramPacket received = new DatagramPacket(buffer, buffer.length);
+
+        while (running) {
+            try {
+                received.setLength(buffer.length);
+                controlSocket.receive(received);
+                commandsReceived++;
+                int length = received.getLength();
+
+                if (JhcmdProtocol.isCommand(buffer, 0, length, JhcmdProtocol.CMD_START_STREAM)) {
+                    InetSocketAddress from = (InetSocketAddress) received.getSocketAddress();
+                    if (streamTarget == null) {
+                        StreamLog.d(TAG, "Stream iniciado para " + from.getAddress().getHostAddress());
+                    }
+                    streamTarget = new InetSocketAddress(from.getAddress(), config.dataPort);
+                    LockSupport.unpark(streamThread);
+                } else if (JhcmdProtocol.isCommand(buffer, 0, length, JhcmdProtocol.CMD_STOP_STREAM)) {
+                    StreamLog.d(TAG, "Stream parado");
+                    streamTarget = null;
+                }
+
+                // Eco do comando como confirmação
+                if (config.echoCommands) {
+                    controlSocket.send(new DatagramPacket(buffer, length, received.getSocketAddress()));
+                }
+            } catch (SocketException e) {
+                if (running) StreamLog.e(TAG, "Erro no socket de controle", e);
+                break;
+            } catch (IOException e) {
+                if (running) StreamLog.w(TAG, "Erro no socket de controle", e);
+            }
+        }
+    }
+
+    private void streamLoop() {
+        long intervalNanos = 1_000_000_000L / Math.max(1, config.fps);
+        long nextFrame = System.nanoTime();
+
+        while (running) {
+            SocketAddress target = streamTarget;
+            if (target == null) {
+                LockSupport.park(this);
+                nextFrame = System.nanoTime();
+                continue;
+            }
+
+            long wait = nextFrame - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            nextFrame += intervalNanos;
+
+            try {
+                sendFrame(target);
+            } catch (IOException e) {
+                if (running) StreamLog.w(TAG, "Erro enviando frame", e);
+            }
+        }
+    }
+
+    private void sendFrame(SocketAddress target) throws IOException {
+        putLong(frame, TIMESTAMP_OFFSET, System.nanoTime());
+
+        int packetCount = (frameLength + FrameAssembler.MAX_PAYLOAD - 1) / FrameAssembler.MAX_PAYLOAD;
+        int heldLength = 0;
+        for (int idx = 0; idx < packetCount; idx++) {
+            int offset = idx * FrameAssembler.MAX_PAYLOAD;
+            int payload = Math.min(FrameAssembler.MAX_PAYLOAD, frameLength - offset);
+
+            packet[0] = (byte) (frameNum >> 8);
+            packet[1] = (byte) frameNum;
+            packet[2] = 0;
+            packet[3] = (byte) idx;
+            packet[4] = packet[5] = packet[6] = packet[7] = 0;
+            System.arraycopy(frame, offset, packet, FrameAssembler.HEADER_SIZE, payload);
+            int length = FrameAssembler.HEADER_SIZE + payload;
+
+            if (shouldDrop()) {
+                packetsDropped++;
+                continue;
+            }
+
+            // Reordenação: segura este pacote e envia depois do próximo
+            if (heldLength == 0 && idx + 1 < packetCount && random.nextDouble() < config.reorderRate) {
+                System.arraycopy(packet, 0, heldPacket, 0, length);
+                heldLength = length;
+                continue;
+            }
+
+            send(packet, length, target);
+            if (heldLength > 0) {
+                send(heldPacket, heldLength, target);
+                heldLength = 0;
+            }
+        }
+        if (heldLength > 0) {
+            send(heldPacket, heldLength, target);
+        }
+
+        frameNum = (frameNum + 1) & 0xFFFF;
+        framesSent++;
+    }
+
+    private boolean shouldDrop() {
+        if (lossRemaining > 0) {
+            lossRemaining--;
+            return true;
+        }
+        if (config.lossRate > 0 && random.nextDouble() < config.lossRate) {
+            lossRemaining = Math.max(1, config.lossBurst) - 1;
+            return true;
+        }
+        return false;
+    }
+
+    private void send(byte[] data, int length, SocketAddress target) throws IOException {
+        outgoing.setData(data, 0, length);
+        outgoing.setSocketAddress(target);
+        dataSocket.send(outgoing);
+        packetsSent++;
+    }
+
+    /**
+     * Monta o frame enviado: o JPEG do template ou um JPEG sintético do tamanho
+     * configurado, sempre com o segmento de timestamp logo após o SOI.
+     */
+    private void buildFrame() {
+        byte[] template = config.jpegTemplate;
+        int bodyLength = template != null
+                ? template.length - 2
+                : Math.max(64, config.frameSize - 2 - TIMESTAMP_SEGMENT_SIZE);
+        frameLength = 2 + TIMESTAMP_SEGMENT_SIZE + bodyLength;
+        if (frameLength > FrameAssembler.MAX_PACKETS * FrameAssembler.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Frame maior que 256 pacotes: " + frameLength);
+        }
+
+        frame = new byte[frameLength];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) JpegUtils.MARKER_SOI;
+        frame[2] = (byte) 0xFF;
+        frame[3] = (byte) 0xFE; // COM
+        frame[4] = 0;
+        frame[5] = (byte) (TIMESTAMP_SEGMENT_SIZE - 2);
+        System.arraycopy(TIMESTAMP_MAGIC, 0, frame, 6, TIMESTAMP_MAGIC.length);
+        int body = 2 + TIMESTAMP_SEGMENT_SIZE;
+
+        if (template != null) {
+            System.arraycopy(template, 2, frame, body, bodyLength);
+            return;
+        }
+
+        // SOF0 mínimo para que readSize() encontre as dimensões
+        byte[] sof = {(byte) 0xFF, (byte) 0xC0, 0, 11, 8,
+                (byte) (FRAME_HEIGHT >> 8), (byte) FRAME_HEIGHT,
+                (byte) (FRAME_WIDTH >> 8), (byte) FRAME_WIDTH, 1, 1, 0x11, 0};
+        System.arraycopy(sof, 0, frame, body, sof.length);
+        int data = body + sof.length;
+
+        int restartInterval = config.restartInterval;
+        if (restartInterval > 0) {
+            // DRI + SOS, para que os marcadores RST abaixo possam ser usados no corte
+            byte[] scanHeader = {(byte) 0xFF, (byte) 0xDD, 0, 4, 0, 1,
+                    (byte) 0xFF, (byte) JpegUtils.MARKER_SOS, 0, 8, 1, 1, 0, 0, 63, 0};
+            System.arraycopy(scanHeader, 0, frame, data, scanHeader.length);
+            data += scanHeader.length;
+        }
+
+        // Dados sem 0xFF, para não formar marcadores antes do EOI
+        for (int i = data; i < frameLength - 2; i++) {
+            frame[i] = (byte) random.nextInt(0xFF);
+        }
+        if (restartInterval > 0) {
+            int marker = 0;
+            for (int i = data + restartInterval; i + 2 < frameLength - 2; i += restartInterval) {
+                frame[i] = (byte) 0xFF;
+                frame[i + 1] = (byte) (0xD0 + marker);
+                marker = (marker + 1) & 7;
+            }
+        }
+        frame[frameLength - 2] = (byte) 0xFF;
+        frame[frameLength - 1] = (byte) JpegUtils.MARKER_EOI;
+    }
+
+    /**
+     * Timestamp de envio gravado pelo simulador no frame, ou -1 se o frame
+     * não veio do simulador.
+     */
+    public static long readSendTimestamp(byte[] jpeg, int length) {
+        if (length < 2 + TIMESTAMP_SEGMENT_SIZE || (jpeg[3] & 0xFF) != 0xFE) return -1;
+        for (int i = 0; i < TIMESTAMP_MAGIC.length; i++) {
+            if (jpeg[6 + i] != TIMESTAMP_MAGIC[i]) return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (jpeg[TIMESTAMP_OFFSET + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static void putLong(byte[] dst, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            dst[offset + i] = (byte) value;
+            value >>= 8;
+        }
+    }
+
+    public long getCommandsReceived() {
+        return commandsReceived;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    public long getPacketsDropped() {
+        return packetsDropped;
+    }
+
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    /**
+     * Executa o simulador como processo próprio, por exemplo para o app rodando
+     * em um emulador. Opções: --port=, --data-port=, --bind=, --fps=, --size=,
+     * --loss=, --burst=, --reorder=, --jpeg=arquivo e --no-echo.
+     */
+    public static void main(String[] args) throws Exception {
+        Config config = new Config();
+        config.bindHost = "0.0.0.0";
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--port=")) config.controlPort = Integer.parseInt(value);
+            else if (arg.startsWith("--data-port=")) config.dataPort = Integer.parseInt(value);
+            else if (arg.startsWith("--bind=")) config.bindHost = value;
+            else if (arg.startsWith("--fps=")) config.fps = Integer.parseInt(value);
+            else if (arg.startsWith("--size=")) config.frameSize = Integer.parseInt(value);
+            else if (arg.startsWith("--loss=")) config.lossRate = Double.parseDouble(value);
+            else if (arg.startsWith("--burst=")) config.lossBurst = Integer.parseInt(value);
+            else if (arg.startsWith("--reorder=")) config.reorderRate = Double.parseDouble(value);
+            else if (arg.equals("--no-echo")) config.echoCommands = false;
+            else if (arg.startsWith("--jpeg=")) config.jpegTemplate = Files.readAllBytes(new File(value).toPath());
+            else throw new IllegalArgumentException("Opção desconhecida: " + arg);
+        }
+
+        JhcmdDeviceSimulator simulator = new JhcmdDeviceSimulator(config);
+        simulator.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::stop));
+        Thread.currentThread().join();
+    }
+}
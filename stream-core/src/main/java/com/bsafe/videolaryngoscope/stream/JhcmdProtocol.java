@@ -0,0 +1,44 @@
+package com.bsafe.videolaryngoscope.stream;
+
+/**
+ * Constantes do protocolo JHCMD do videolaringoscópio.
+ *
+ * Comandos vão por UDP para a porta de controle do dispositivo; o vídeo chega
+ * na porta de dados local como JPEGs fatiados em pacotes com header de
+ * {@link FrameAssembler#HEADER_SIZE} bytes.
+ */
+public final class JhcmdProtocol {
+
+    public static final String DEVICE_IP = "192.168.100.1";
+    public static final int CONTROL_PORT = 20000;  // Porta UDP para comandos
+    public static final int DATA_PORT = 10900;     // Porta UDP para receber vídeo
+
+    public static final int COMMAND_LENGTH = 7;
+
+    // Comandos JHCMD do protocolo proprietário
+    public static final byte[] CMD_HANDSHAKE_1 = {'J', 'H', 'C', 'M', 'D', 0x10, 0x00};
+    public static final byte[] CMD_HANDSHAKE_2 = {'J', 'H', 'C', 'M', 'D', 0x20, 0x00};
+    public static final byte[] CMD_START_STREAM = {'J', 'H', 'C', 'M', 'D', (byte) 0xD0, 0x01};
+    public static final byte[] CMD_STOP_STREAM = {'J', 'H', 'C', 'M', 'D', (byte) 0xD0, 0x02};
+
+    private JhcmdProtocol() {}
+
+    /**
+     * True se {@code data[offset..offset+length)} é o comando {@code command}.
+     */
+    public static boolean isCommand(byte[] data, int offset, int length, byte[] command) {
+        if (length < command.length) return false;
+        for (int i = 0; i < command.length; i++) {
+            if (data[offset + i] != command[i]) return false;
+        }
+        return true;
+    }
+
+    static String toHex(byte[] command) {
+        StringBuilder hex = new StringBuilder(command.length * 3);
+        for (byte b : command) {
+            hex.append(String.format("%02X ", b & 0xFF));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,447 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+
+/**
+ * Sessão JHCMD sem dependência de UI: handshake, keep-alive, recepção e
+ * remontagem de frames.
+ *
+ * Os frames completos vão para o {@link FrameAssembler.FrameSink} informado,
+ * na thread receptora. O mesmo motor roda no app e em uma JVM comum, contra o
+ * dispositivo real ou o {@link JhcmdDeviceSimulator}.
+ *
+ * Uma thread supervisora envia o keep-alive e vigia o stream: sem frames por
+ * {@link Config#stallTimeoutMs}, tenta recuperar sem desmontar a sessão,
+ * escalando a cada tentativa (reenvio do START, handshake completo, reabertura
+ * do socket de dados) com intervalos crescentes até {@link Config#stallMaxBackoffMs}.
+ */
+public final class JhcmdStreamEngine {
+
+    private static final String TAG = "JhcmdStreamEngine";
+
+    // Fatia de espera por respostas no socket de controle durante o handshake
+    private static final int REPLY_POLL_MS = 20;
+
+    private static final byte[][] HANDSHAKE = {
+            JhcmdProtocol.CMD_HANDSHAKE_1,
+            JhcmdProtocol.CMD_HANDSHAKE_2,
+            JhcmdProtocol.CMD_START_STREAM,
+    };
+
+    /**
+     * Parâmetros da sessão; os valores padrão são os do dispositivo real.
+     */
+    public static final class Config {
+        public String deviceHost = JhcmdProtocol.DEVICE_IP;
+        public int controlPort = JhcmdProtocol.CONTROL_PORT;
+        public int dataPort = JhcmdProtocol.DATA_PORT;
+
+        // Pool de frames: 256 pacotes (packetIdx é 1 byte) x ~1,5KB cabem em 384KB
+        public int framePoolSize = 8;
+        public int frameBufferCapacity = 384 * 1024;
+
+        // Janela de remontagem: frames abertos simultaneamente e prazo de cada um
+        public int reassemblyWindow = 3;
+        public int reassemblyDeadlineMs = 80;
+        public boolean salvagePartialFrames = true; // Aproveita frames incompletos com marcadores RST
+
+        // Handshake: cada comando espera a resposta (eco) ou o primeiro pacote de vídeo
+        public int handshakeStepTimeoutMs = 200;
+        public int handshakeAttempts = 3;
+
+        public int keepAliveIntervalMs = 5000;
+
+        // Watchdog: sem frames por esse prazo o stream é considerado travado
+        public int stallTimeoutMs = 1000;
+        public int stallMaxBackoffMs = 8000;
+    }
+
+    /**
+     * Avisos do watchdog, chamados na thread supervisora.
+     */
+    public interface StallListener {
+        void onStreamStalled();
+
+        /**
+         * @param recoveryMs da detecção do travamento até o primeiro frame novo
+         */
+        void onStreamRecovered(long recoveryMs);
+    }
+
+    private final Config config;
+    private final FrameBufferPool pool;
+    private final FrameAssembler assembler;
+    private final StreamMetrics metrics;
+
+    private DatagramSocket controlSocket;
+    private InetAddress deviceAddress;
+    private StreamReceiver receiver;
+    private Thread supervisorThread;
+    private volatile boolean streaming = false;
+    private volatile StallListener stallListener;
+
+    // Chegada do primeiro pacote do último frame entregue (System.nanoTime)
+    private volatile long lastFrameNanos;
+
+    // Travamento em curso; o primeiro frame seguinte o encerra e marca recoveredFrameNanos
+    private volatile boolean stalled;
+    private volatile long recoveredFrameNanos;
+
+    // Pacotes de sessões anteriores (cada conexão cria um receptor novo)
+    private volatile long previousPacketsReceived;
+
+    public JhcmdStreamEngine(Config config, FrameAssembler.FrameSink sink) {
+        this(config, sink, new StreamMetrics());
+    }
+
+    /**
+     * @param metrics contadores compartilhados com os estágios fora do motor
+     *                (decodificação, exibição, gravação)
+     */
+    public JhcmdStreamEngine(Config config, FrameAssembler.FrameSink sink, StreamMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        this.pool = new FrameBufferPool(config.framePoolSize, config.frameBufferCapacity);
+        this.assembler = new FrameAssembler(pool, frame -> {
+            long timestamp = frame.getTimestampNanos();
+            lastFrameNanos = timestamp;
+            if (stalled) {
+                recoveredFrameNanos = timestamp;
+                stalled = false;
+            }
+            sink.onFrame(frame);
+        }, config.reassemblyWindow, config.reassemblyDeadlineMs, metrics);
+        assembler.setSalvageEnabled(config.salvagePartialFrames);
+    }
+
+    /**
+     * Abre os sockets, inicia a recepção, executa o handshake e inicia o
+     * supervisor. Bloqueia durante o handshake; em caso de falha tudo é fechado.
+     */
+    public synchronized void connect() throws IOException {
+        if (streaming) return;
+
+        try {
+            StreamLog.d(TAG, ">>> INICIANDO CONEXÃO COM CÂMERA <<<");
+
+            controlSocket = new DatagramSocket();
+            controlSocket.setSoTimeout(REPLY_POLL_MS);
+
+            // O receptor já escuta durante o handshake: o primeiro pacote de vídeo o encerra
+            receiver = new StreamReceiver(config.dataPort, assembler, config.reassemblyDeadlineMs, metrics);
+            receiver.open();
+            receiver.start();
+            StreamLog.d(TAG, "Sockets criados - Porta de dados: " + config.dataPort);
+
+            deviceAddress = InetAddress.getByName(config.deviceHost);
+            handshake();
+
+            streaming = true;
+            lastFrameNanos = System.nanoTime();
+            stalled = false;
+            startSupervisor();
+            StreamLog.d(TAG, ">>> CONEXÃO ESTABELECIDA <<<");
+
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Envia os comandos do handshake avançando assim que o dispositivo responde
+     * ou o vídeo começa a chegar. Só há reenvio depois que o dispositivo mostrou
+     * que responde (eco); um que nunca responde recebe cada comando uma vez, no
+     * ritmo do timeout de cada etapa, então o START nunca sai depois do que
+     * sairia com esperas fixas.
+     */
+    private void handshake() throws IOException {
+        StreamLog.d(TAG, "Enviando handshake...");
+        long start = System.nanoTime();
+        long packetsBefore = getPacketsReceived();
+        drainReplies();
+
+        boolean answering = false; // Eco visto no comando anterior
+        String outcome = "sem resposta";
+        for (byte[] command : HANDSHAKE) {
+            // Com vídeo chegando, só falta o START (enviado sempre: o vídeo pode ser resto da sessão anterior)
+            if (command != JhcmdProtocol.CMD_START_STREAM && getPacketsReceived() > packetsBefore) {
+                continue;
+            }
+            answering = sendAndAwaitReply(command, answering ? config.handshakeAttempts : 1, packetsBefore);
+            if (answering) outcome = "confirmado";
+        }
+        if (getPacketsReceived() > packetsBefore) {
+            outcome = "vídeo recebido";
+        }
+
+        StreamLog.d(TAG, "Handshake " + outcome + " em " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Envia o comando até {@code attempts} vezes e retorna true quando o
+     * dispositivo responde ou o vídeo começa a chegar dentro do prazo.
+     */
+    private boolean sendAndAwaitReply(byte[] command, int attempts, long packetsBefore) throws IOException {
+        byte[] buffer = new byte[64];
+        DatagramPacket reply = new DatagramPacket(buffer, buffer.length);
+        long stepNanos = config.handshakeStepTimeoutMs * 1_000_000L;
+
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            sendCommand(command);
+            long deadline = System.nanoTime() + stepNanos;
+
+            while (System.nanoTime() - deadline < 0) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Handshake interrompido");
+                }
+                if (getPacketsReceived() > packetsBefore) {
+                    return true;
+                }
+                try {
+                    reply.setLength(buffer.length);
+                    controlSocket.receive(reply);
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                if (isReplyTo(command, reply)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resposta do dispositivo que não é eco de outro comando (ex.: atrasada de uma etapa anterior).
+     */
+    private boolean isReplyTo(byte[] command, DatagramPacket reply) {
+        if (!deviceAddress.equals(reply.getAddress())) return false;
+
+        byte[] data = reply.getData();
+        int length = reply.getLength();
+        for (byte[] other : HANDSHAKE) {
+            if (other != command && JhcmdProtocol.isCommand(data, 0, length, other)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Descarta respostas pendentes (ex.: ecos do keep-alive) antes de um novo handshake.
+     */
+    private void drainReplies() throws IOException {
+        DatagramPacket reply = new DatagramPacket(new byte[64], 64);
+        controlSocket.setSoTimeout(1);
+        try {
+            while (true) {
+                controlSocket.receive(reply);
+                reply.setLength(64);
+            }
+        } catch (SocketTimeoutException e) {
+            // Fila vazia
+        } finally {
+            controlSocket.setSoTimeout(REPLY_POLL_MS);
+        }
+    }
+
+    private void sendCommand(byte[] command) throws IOException {
+        DatagramPacket packet = new DatagramPacket(
+                command, command.length, deviceAddress, config.controlPort);
+        controlSocket.send(packet);
+        StreamLog.d(TAG, "CMD enviado: " + JhcmdProtocol.toHex(command));
+    }
+
+    private void startSupervisor() {
+        supervisorThread = new Thread(this::superviseLoop);
+        supervisorThread.setName("StreamSupervisor");
+        supervisorThread.start();
+    }
+
+    /**
+     * Keep-alive periódico e watchdog de frames.
+     */
+    private void superviseLoop() {
+        StreamLog.d(TAG, "Supervisor iniciado");
+        long tickMs = Math.max(50, Math.min(config.stallTimeoutMs / 4, config.keepAliveIntervalMs));
+        long stallTimeoutNanos = config.stallTimeoutMs * 1_000_000L;
+        long keepAliveNanos = config.keepAliveIntervalMs * 1_000_000L;
+
+        long nextKeepAlive = System.nanoTime() + keepAliveNanos;
+        long stalledSince = 0; // 0 = stream normal
+        long nextAttempt = 0;
+        int attempt = 0;
+        int keepAlives = 0;
+
+        while (streaming) {
+            try {
+                Thread.sleep(tickMs);
+                long now = System.nanoTime();
+
+                if (stalledSince == 0) {
+                    if (now - lastFrameNanos > stallTimeoutNanos) {
+                        stalledSince = now;
+                        stalled = true;
+                        attempt = 0;
+                        nextAttempt = now;
+                        StreamLog.w(TAG, "Stream travado: " + (now - lastFrameNanos) / 1_000_000 + " ms sem frames");
+                        StallListener listener = stallListener;
+                        if (listener != null) listener.onStreamStalled();
+                    }
+                } else if (!stalled) {
+                    long recoveryMs = Math.max(0, recoveredFrameNanos - stalledSince) / 1_000_000;
+                    StreamLog.i(TAG, "Stream recuperado em " + recoveryMs + " ms, após "
+                            + attempt + " tentativa(s)");
+                    metrics.onStallRecovered(recoveryMs);
+                    stalledSince = 0;
+                    StallListener listener = stallListener;
+                    if (listener != null) listener.onStreamRecovered(recoveryMs);
+                }
+
+                if (stalledSince != 0 && now - nextAttempt >= 0) {
+                    recover(attempt);
+                    long backoffMs = Math.min((long) config.stallTimeoutMs << Math.min(attempt, 16),
+                            config.stallMaxBackoffMs);
+                    nextAttempt = System.nanoTime() + backoffMs * 1_000_000L;
+                    attempt++;
+                    nextKeepAlive = System.nanoTime() + keepAliveNanos;
+                }
+
+                if (now - nextKeepAlive >= 0) {
+                    sendCommand(JhcmdProtocol.CMD_START_STREAM);
+                    nextKeepAlive = now + keepAliveNanos;
+                    if (++keepAlives % 10 == 0) {
+                        StreamLog.d(TAG, "Keep-alive #" + keepAlives);
+                    }
+                }
+            } catch (InterruptedException | InterruptedIOException e) {
+                break;
+            } catch (IOException e) {
+                if (streaming) {
+                    StreamLog.e(TAG, "Erro no supervisor", e);
+                }
+            }
+        }
+        StreamLog.d(TAG, "Supervisor finalizado");
+    }
+
+    /**
+     * Uma tentativa de recuperação, mais drástica a cada nível.
+     */
+    private void recover(int attempt) throws IOException {
+        if (attempt == 0) {
+            // Caminho rápido: o dispositivo costuma voltar só com o START
+            StreamLog.d(TAG, "Recuperação #1: reenviando START");
+            sendCommand(JhcmdProtocol.CMD_START_STREAM);
+        } else if (attempt == 1) {
+            StreamLog.d(TAG, "Recuperação #2: handshake nos sockets atuais");
+            handshake();
+        } else {
+            StreamLog.d(TAG, "Recuperação #" + (attempt + 1) + ": reabrindo socket de dados");
+            reopenReceiver();
+            handshake();
+        }
+    }
+
+    /**
+     * Troca o receptor por um novo na mesma porta, sem fechar o socket de controle.
+     */
+    private synchronized void reopenReceiver() throws IOException {
+        if (!streaming) return;
+
+        if (receiver != null) {
+            receiver.stop();
+            previousPacketsReceived += receiver.getPacketsReceived();
+            receiver = null;
+        }
+        assembler.reset();
+
+        StreamReceiver fresh = new StreamReceiver(config.dataPort, assembler, config.reassemblyDeadlineMs, metrics);
+        fresh.open();
+        fresh.start();
+        receiver = fresh;
+    }
+
+    /**
+     * Envia STOP, fecha os sockets e aguarda as threads. Frames em remontagem
+     * são descartados. Pode ser chamado mais de uma vez.
+     */
+    public void disconnect() {
+        // O supervisor pode estar reabrindo o receptor: encerra-o antes de pegar o lock
+        Thread supervisor;
+        synchronized (this) {
+            StreamLog.d(TAG, ">>> DESCONECTANDO <<<");
+            streaming = false;
+            supervisor = supervisorThread;
+            supervisorThread = null;
+        }
+        if (supervisor != null && supervisor != Thread.currentThread()) {
+            supervisor.interrupt();
+            try {
+                supervisor.join(1000);
+            } catch (InterruptedException ignored) {}
+        }
+
+        synchronized (this) {
+            try {
+                if (controlSocket != null && !controlSocket.isClosed() && deviceAddress != null) {
+                    sendCommand(JhcmdProtocol.CMD_STOP_STREAM);
+                }
+            } catch (IOException e) {
+                StreamLog.e(TAG, "Erro enviando STOP", e);
+            }
+
+            // Fecha sockets; o receptor é acordado pelo selector, sem esperar timeout
+            if (controlSocket != null) {
+                controlSocket.close();
+                controlSocket = null;
+            }
+            if (receiver != null) {
+                receiver.stop();
+                previousPacketsReceived += receiver.getPacketsReceived();
+                receiver = null;
+            }
+
+            // Descarta frames que estavam sendo montados
+            assembler.reset();
+        }
+    }
+
+    public void setStallListener(StallListener listener) {
+        this.stallListener = listener;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public FrameBufferPool getPool() {
+        return pool;
+    }
+
+    public FrameAssembler getAssembler() {
+        return assembler;
+    }
+
+    /**
+     * Telemetria da sessão. Os estágios do app (decodificação, exibição,
+     * gravação) registram seus descartes e latências aqui.
+     */
+    public StreamMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Pacotes recebidos desde a criação do motor, somando todas as conexões.
+     */
+    public long getPacketsReceived() {
+        StreamReceiver current = receiver;
+        return previousPacketsReceived + (current != null ? current.getPacketsReceived() : 0);
+    }
+}
@@ -0,0 +1,106 @@
+package com.bsafe.videolaryngoscope.stream;
+
+/**
+ * Utilitários para inspecionar JPEGs sem decodificá-los.
+ */
+public final class JpegUtils {
+
+    public static final int MARKER_SOI = 0xD8;
+    public static final int MARKER_EOI = 0xD9;
+    public static final int MARKER_SOS = 0xDA;
+
+    private JpegUtils() {}
+
+    /**
+     * Lê largura e altura do segmento SOF sem alocar. Retorna false se o
+     * header não puder ser interpretado antes do início dos dados (SOS).
+     */
+    public static boolean readSize(byte[] data, int length, int[] outSize) {
+        if (length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != MARKER_SOI) {
+            return false;
+        }
+
+        int i = 2;
+        while (i + 4 <= length) {
+            if ((data[i] & 0xFF) != 0xFF) return false;
+            int marker = data[i + 1] & 0xFF;
+
+            if (marker == 0xFF) { // Byte de preenchimento
+                i++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) { // Sem payload
+                i += 2;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) return false;
+
+            int segmentLength = ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF);
+            if (isStartOfFrame(marker)) {
+                if (i + 9 > length) return false;
+                outSize[1] = ((data[i + 5] & 0xFF) << 8) | (data[i + 6] & 0xFF);
+                outSize[0] = ((data[i + 7] & 0xFF) << 8) | (data[i + 8] & 0xFF);
+                return outSize[0] > 0 && outSize[1] > 0;
+            }
+            i += 2 + segmentLength;
+        }
+        return false;
+    }
+
+    /**
+     * Posição do último marcador de restart (FFD0-FFD7) nos dados comprimidos,
+     * ou -1 se não houver SOS ou nenhum marcador depois dele. Os bytes antes
+     * dessa posição terminam um intervalo de restart completo.
+     */
+    public static int findLastRestartMarker(byte[] data, int length) {
+        int scanStart = findScanStart(data, length);
+        if (scanStart < 0) return -1;
+
+        // Nos dados comprimidos todo 0xFF literal vira FF00: FF Dn é sempre marcador
+        for (int i = length - 2; i >= scanStart; i--) {
+            if ((data[i] & 0xFF) == 0xFF && (data[i + 1] & 0xF8) == 0xD0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Início dos dados comprimidos (após o segmento SOS), ou -1.
+     */
+    private static int findScanStart(byte[] data, int length) {
+        if (length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != MARKER_SOI) {
+            return -1;
+        }
+
+        int i = 2;
+        while (i + 4 <= length) {
+            if ((data[i] & 0xFF) != 0xFF) return -1;
+            int marker = data[i + 1] & 0xFF;
+
+            if (marker == 0xFF) { // Byte de preenchimento
+                i++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) { // Sem payload
+                i += 2;
+                continue;
+            }
+            if (marker == MARKER_EOI) return -1;
+
+            int segmentLength = ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF);
+            if (marker == MARKER_SOS) {
+                int scanStart = i + 2 + segmentLength;
+                return scanStart <= length ? scanStart : -1;
+            }
+            i += 2 + segmentLength;
+        }
+        return -1;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0..SOF15, exceto DHT (C4), JPG (C8) e DAC (CC)
+        return marker >= 0xC0 && marker <= 0xCF
+                && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+}
@@ -0,0 +1,117 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.util.Arrays;
+
+/**
+ * Teste de carga do motor contra o simulador, em loopback e numa JVM comum.
+ *
+ * Mede frames/s, pacotes/s, throughput e a latência do envio do primeiro
+ * pacote até a entrega do frame montado. Opções: --seconds=, --fps=, --size=,
+ * --loss=, --burst=, --reorder=, --control-port=, --data-port=, --stall-every=
+ * (segundos entre travamentos simulados, para medir a recuperação), --restart=
+ * (bytes entre marcadores RST no JPEG sintético), --no-salvage e --no-echo
+ * (simulador que não responde ao handshake).
+ */
+public final class LoopbackLoadTest {
+
+    private static final String TAG = "LoopbackLoadTest";
+
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    private final long[] latencies = new long[MAX_SAMPLES];
+    private volatile int samples;
+
+    private LoopbackLoadTest() {}
+
+    private void onFrame(FrameBuffer frame) {
+        long sent = JhcmdDeviceSimulator.readSendTimestamp(frame.getData(), frame.getLength());
+        if (sent >= 0 && samples < MAX_SAMPLES) {
+            latencies[samples] = System.nanoTime() - sent;
+            samples = samples + 1; // Apenas a thread receptora escreve
+        }
+        frame.release();
+    }
+
+    public static void main(String[] args) throws Exception {
+        JhcmdDeviceSimulator.Config simConfig = new JhcmdDeviceSimulator.Config();
+        JhcmdStreamEngine.Config engineConfig = new JhcmdStreamEngine.Config();
+        engineConfig.deviceHost = simConfig.bindHost;
+        int seconds = 10;
+        int stallEverySeconds = 0;
+
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--seconds=")) seconds = Integer.parseInt(value);
+            else if (arg.startsWith("--fps=")) simConfig.fps = Integer.parseInt(value);
+            else if (arg.startsWith("--size=")) simConfig.frameSize = Integer.parseInt(value);
+            else if (arg.startsWith("--loss=")) simConfig.lossRate = Double.parseDouble(value);
+            else if (arg.startsWith("--burst=")) simConfig.lossBurst = Integer.parseInt(value);
+            else if (arg.startsWith("--reorder=")) simConfig.reorderRate = Double.parseDouble(value);
+            else if (arg.startsWith("--stall-every=")) stallEverySeconds = Integer.parseInt(value);
+            else if (arg.startsWith("--restart=")) simConfig.restartInterval = Integer.parseInt(value);
+            else if (arg.equals("--no-salvage")) engineConfig.salvagePartialFrames = false;
+            else if (arg.equals("--no-echo")) simConfig.echoCommands = false;
+            else if (arg.startsWith("--control-port=")) simConfig.controlPort = Integer.parseInt(value);
+            else if (arg.startsWith("--data-port=")) simConfig.dataPort = Integer.parseInt(value);
+            else throw new IllegalArgumentException("Opção desconhecida: " + arg);
+        }
+        engineConfig.controlPort = simConfig.controlPort;
+        engineConfig.dataPort = simConfig.dataPort;
+
+        LoopbackLoadTest test = new LoopbackLoadTest();
+        JhcmdDeviceSimulator simulator = new JhcmdDeviceSimulator(simConfig);
+        JhcmdStreamEngine engine = new JhcmdStreamEngine(engineConfig, test::onFrame);
+
+        simulator.start();
+        engine.connect();
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        long remainingMs;
+        while ((remainingMs = (deadline - System.nanoTime()) / 1_000_000) > 0) {
+            if (stallEverySeconds <= 0 || remainingMs <= stallEverySeconds * 1000L) {
+                Thread.sleep(remainingMs);
+                break;
+            }
+            // Travamentos periódicos para medir a recuperação pelo watchdog
+            Thread.sleep(stallEverySeconds * 1000L);
+            simulator.simulateStall();
+        }
+        long elapsed = System.nanoTime() - start;
+        engine.disconnect();
+        simulator.stop();
+
+        test.report(simulator, engine, elapsed);
+    }
+
+    private void report(JhcmdDeviceSimulator simulator, JhcmdStreamEngine engine, long elapsedNanos) {
+        double secondsElapsed = elapsedNanos / 1e9;
+        FrameAssembler assembler = engine.getAssembler();
+        long packets = engine.getPacketsReceived();
+
+        StreamLog.i(TAG, String.format("Enviados: %d frames, %d pacotes (%d perdidos de propósito)",
+                simulator.getFramesSent(), simulator.getPacketsSent(), simulator.getPacketsDropped()));
+        StreamLog.i(TAG, String.format("Recebidos: %d pacotes (%.0f/s, %.1f MB/s)",
+                packets, packets / secondsElapsed,
+                packets * (double) FrameAssembler.MAX_PAYLOAD / secondsElapsed / (1024 * 1024)));
+        StreamLog.i(TAG, String.format("Frames: %d completos (%.1f/s), %d parciais, %d descartados, "
+                        + "pool esgotado %d vezes",
+                assembler.getFramesCompleted(), assembler.getFramesCompleted() / secondsElapsed,
+                assembler.getFramesSalvaged(), assembler.getFramesDropped(),
+                engine.getPool().getExhaustedCount()));
+        StreamLog.i(TAG, String.format("Pacotes perdidos: %d, reordenados: %d, atrasados: %d",
+                assembler.getPacketsLost(), assembler.getPacketsReordered(),
+                assembler.getPacketsLate()));
+        StreamLog.i(TAG, "Telemetria: " + engine.getMetrics().snapshot());
+
+        int count = samples;
+        if (count == 0) {
+            StreamLog.w(TAG, "Nenhum frame recebido");
+            return;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        StreamLog.i(TAG, String.format("Latência (µs): p50 %d, p90 %d, p99 %d, máx %d",
+                sorted[count / 2] / 1000, sorted[count * 9 / 10] / 1000,
+                sorted[Math.min(count - 1, count * 99 / 100)] / 1000, sorted[count - 1] / 1000));
+    }
+}
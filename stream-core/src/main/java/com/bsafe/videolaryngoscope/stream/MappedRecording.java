@@ -0,0 +1,92 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.bsafe.videolaryngoscope.stream.MjpegRecordingFormat.MAX_FRAME_SIZE;
+
+/**
+ * Gravação (.avi ou .mjpeg) mapeada em memória para reprodução: os frames são
+ * fatias somente-leitura do mapeamento, sem cópia para o heap.
+ *
+ * O arquivo é mapeado em janelas de {@link #WINDOW_SIZE} (mais um frame
+ * máximo de sobreposição, para nenhum frame cruzar o fim da janela), mapeadas
+ * sob demanda. Só a janela atual fica referenciada, o que limita o espaço de
+ * endereçamento usado em aparelhos 32 bits. Não é thread-safe.
+ */
+public final class MappedRecording implements Closeable {
+
+    public static final long WINDOW_SIZE = 128L * 1024 * 1024;
+
+    private final FileInputStream in;
+    private final FileChannel channel;
+    private final RecordingIndex index;
+    private final long size;
+
+    private MappedByteBuffer window;
+    private long windowStart = -1;
+
+    private MappedRecording(FileInputStream in, RecordingIndex index) throws IOException {
+        this.in = in;
+        this.channel = in.getChannel();
+        this.index = index;
+        this.size = channel.size();
+    }
+
+    /**
+     * Abre o arquivo e lê (ou reconstrói) o índice de frames.
+     */
+    public static MappedRecording open(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return new MappedRecording(in, RecordingIndex.load(in.getChannel()));
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public RecordingIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * JPEG do frame {@code frame} como fatia do mapeamento (posição 0, limite
+     * no tamanho do frame). Válida enquanto houver referência a ela, mesmo
+     * depois de outra janela ser mapeada.
+     */
+    public ByteBuffer getFrame(int frame) throws IOException {
+        long offset = index.getOffset(frame);
+        int length = index.getLength(frame);
+        if (offset + length > size) {
+            throw new IOException("Frame fora do arquivo: " + frame);
+        }
+
+        long start = offset - offset % WINDOW_SIZE;
+        if (length > MAX_FRAME_SIZE) {
+            // Fora do limite da sobreposição: mapeamento só para este frame
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+        if (start != windowStart) {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(WINDOW_SIZE + MAX_FRAME_SIZE, size - start));
+            windowStart = start;
+        }
+
+        ByteBuffer slice = window.duplicate();
+        int position = (int) (offset - start);
+        slice.limit(position + length).position(position);
+        return slice.slice();
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        in.close();
+    }
+}
@@ -0,0 +1,27 @@
+package com.bsafe.videolaryngoscope.stream;
+
+/**
+ * Layout dos arquivos .mjpeg gravados pelas versões do app anteriores ao AVI
+ * (ver {@link AviMuxer}); mantido para leitura.
+ *
+ * <pre>
+ * Frame (N vezes): u32 tamanho (big-endian) | JPEG
+ * </pre>
+ *
+ * Não há header, índice nem timestamps: o índice é reconstruído varrendo os
+ * tamanhos e os frames são espaçados pela cadência nominal.
+ */
+public final class MjpegRecordingFormat {
+
+    public static final int VERSION_LEGACY = 1;
+
+    public static final int LEGACY_FRAME_HEADER_SIZE = 4;
+
+    // Limite de sanidade para o tamanho de um frame ao varrer arquivos
+    public static final int MAX_FRAME_SIZE = 4 * 1024 * 1024;
+
+    // Cadência assumida, já que os arquivos não têm timestamps
+    public static final long LEGACY_FRAME_INTERVAL_US = 33_333;
+
+    private MjpegRecordingFormat() {}
+}
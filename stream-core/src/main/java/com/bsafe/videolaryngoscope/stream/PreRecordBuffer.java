@@ -0,0 +1,180 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Anel dos últimos segundos de JPEGs recebidos, para que a gravação comece
+ * antes do momento em que o botão foi pressionado.
+ *
+ * Os frames são copiados para um único {@link ByteBuffer} direto (fora do heap
+ * Java) com capacidade fixa em bytes; cada frame ocupa um trecho contíguo e os
+ * mais antigos são descartados quando falta espaço ou quando passam de
+ * {@code maxDurationMs}. Nenhuma alocação é feita por frame.
+ *
+ * Ao iniciar uma gravação, o {@link RecordingWriter} congela o anel
+ * ({@link #freeze()}), grava seu conteúdo na thread de escrita e o libera
+ * ({@link #release()}); enquanto congelado, {@link #add(FrameBuffer)} ignora
+ * os frames. Quem alimenta o anel deve trocar o destino para a gravação
+ * atomicamente com o congelamento (no app, StreamService faz os dois sob o
+ * mesmo lock), senão os frames desse intervalo se perdem.
+ */
+public final class PreRecordBuffer {
+
+    private static final int MAX_FRAMES = 1024;
+
+    private final ByteBuffer data;
+    private final ByteBuffer producerView;
+    private final long maxDurationNanos;
+
+    // Metadados em anel: o frame mais antigo está em head
+    private final int[] offsets = new int[MAX_FRAMES];
+    private final int[] lengths = new int[MAX_FRAMES];
+    private final long[] timestamps = new long[MAX_FRAMES];
+    private int head;
+    private int count;
+    private int writeOffset;
+    private long bufferedBytes;
+    private final int[] frameSize = new int[2];
+
+    private boolean frozen = false;
+
+    public PreRecordBuffer(int capacityBytes, long maxDurationMs) {
+        this.data = ByteBuffer.allocateDirect(capacityBytes);
+        this.producerView = data.duplicate();
+        this.maxDurationNanos = maxDurationMs * 1_000_000L;
+    }
+
+    /**
+     * Copia o frame para o anel. A referência continua com quem chama.
+     */
+    public synchronized void add(FrameBuffer frame) {
+        if (frozen) return;
+
+        int length = frame.getLength();
+        int capacity = data.capacity();
+        if (length > capacity) return;
+
+        long timestamp = frame.getTimestampNanos();
+        while (count > 0 && timestamp - timestamps[head] > maxDurationNanos) {
+            evictOldest();
+        }
+
+        int offset = writeOffset;
+        if (offset + length > capacity) {
+            // Não cabe no fim: os frames do fim (os mais antigos) saem e a escrita volta ao início
+            while (count > 0 && offsets[head] >= offset) {
+                evictOldest();
+            }
+            offset = 0;
+        }
+        while (count > 0 && (count == MAX_FRAMES || overlaps(head, offset, length))) {
+            evictOldest();
+        }
+
+        if (count == 0 && !JpegUtils.readSize(frame.getData(), length, frameSize)) {
+            frameSize[0] = 0;
+            frameSize[1] = 0;
+        }
+
+        producerView.limit(offset + length).position(offset);
+        producerView.put(frame.getData(), 0, length);
+
+        int slot = (head + count) % MAX_FRAMES;
+        offsets[slot] = offset;
+        lengths[slot] = length;
+        timestamps[slot] = timestamp;
+        count++;
+        bufferedBytes += length;
+        writeOffset = offset + length;
+    }
+
+    private boolean overlaps(int slot, int offset, int length) {
+        return offsets[slot] < offset + length && offsets[slot] + lengths[slot] > offset;
+    }
+
+    private void evictOldest() {
+        bufferedBytes -= lengths[head];
+        head = (head + 1) % MAX_FRAMES;
+        count--;
+        if (count == 0) {
+            writeOffset = 0;
+        }
+    }
+
+    /**
+     * Descarta o conteúdo (ex.: desconexão, para não emendar sessões diferentes).
+     */
+    public synchronized void clear() {
+        if (frozen) return;
+        head = 0;
+        count = 0;
+        writeOffset = 0;
+        bufferedBytes = 0;
+    }
+
+    /**
+     * Congela o conteúdo atual para leitura por outra thread e retorna o número
+     * de frames. Até {@link #release()}, novos frames são ignorados.
+     */
+    synchronized int freeze() {
+        frozen = true;
+        return count;
+    }
+
+    /**
+     * Esvazia o anel e volta a aceitar frames.
+     */
+    synchronized void release() {
+        frozen = false;
+        clear();
+    }
+
+    // Acesso ao conteúdo congelado; i = 0 é o frame mais antigo
+
+    int getOffset(int i) {
+        return offsets[(head + i) % MAX_FRAMES];
+    }
+
+    int getLength(int i) {
+        return lengths[(head + i) % MAX_FRAMES];
+    }
+
+    long getTimestampNanos(int i) {
+        return timestamps[(head + i) % MAX_FRAMES];
+    }
+
+    int getFrameWidth() {
+        return frameSize[0];
+    }
+
+    int getFrameHeight() {
+        return frameSize[1];
+    }
+
+    /**
+     * Visão somente leitura dos dados, com posição e limite independentes.
+     */
+    ByteBuffer duplicateData() {
+        return data.asReadOnlyBuffer();
+    }
+
+    public int getCapacity() {
+        return data.capacity();
+    }
+
+    public synchronized int getFrameCount() {
+        return count;
+    }
+
+    public synchronized long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * Intervalo coberto pelos frames guardados, do mais antigo ao mais novo.
+     */
+    public synchronized long getBufferedDurationMs() {
+        if (count < 2) return 0;
+        return (timestamps[(head + count - 1) % MAX_FRAMES] - timestamps[head]) / 1_000_000L;
+    }
+}
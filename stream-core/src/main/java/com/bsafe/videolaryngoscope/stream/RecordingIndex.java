@@ -0,0 +1,333 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static com.bsafe.videolaryngoscope.stream.MjpegRecordingFormat.LEGACY_FRAME_HEADER_SIZE;
+import static com.bsafe.videolaryngoscope.stream.MjpegRecordingFormat.LEGACY_FRAME_INTERVAL_US;
+import static com.bsafe.videolaryngoscope.stream.MjpegRecordingFormat.MAX_FRAME_SIZE;
+import static com.bsafe.videolaryngoscope.stream.MjpegRecordingFormat.VERSION_LEGACY;
+
+/**
+ * Índice de frames de uma gravação (.avi ou .mjpeg): offset, tamanho e
+ * timestamp de cada JPEG.
+ *
+ * Para AVIs finalizados o índice é lido diretamente do idx1. Arquivos .mjpeg
+ * antigos e gravações interrompidas têm o índice reconstruído varrendo os
+ * headers dos frames (sem ler os JPEGs).
+ */
+public final class RecordingIndex {
+
+    /** Gravações AVI escritas por {@link AviMuxer}; 1 é o formato .mjpeg antigo. */
+    public static final int VERSION_AVI = 3;
+
+    private static final byte[] RIFF_MAGIC = {'R', 'I', 'F', 'F'};
+
+    private final int version;
+    private final long startTimeMillis;
+    private final boolean rebuilt;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final long[] timestampsUs;
+    private final int frameCount;
+    private final long dataEnd;
+
+    private RecordingIndex(int version, long startTimeMillis, boolean rebuilt,
+                           long[] offsets, int[] lengths, long[] timestampsUs,
+                           int frameCount, long dataEnd) {
+        this.version = version;
+        this.startTimeMillis = startTimeMillis;
+        this.rebuilt = rebuilt;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.timestampsUs = timestampsUs;
+        this.frameCount = frameCount;
+        this.dataEnd = dataEnd;
+    }
+
+    /**
+     * Lê o índice do idx1 (AVI) ou, na falta dele, reconstrói varrendo o arquivo.
+     */
+    public static RecordingIndex load(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RIFF_MAGIC.length);
+        readFully(channel, header, 0);
+
+        if (!header.hasRemaining() && matches(header, 0, RIFF_MAGIC)) {
+            return loadAvi(channel, size);
+        }
+        return scanLegacy(channel, size);
+    }
+
+    /**
+     * Localiza o primeiro frame lendo só o header do arquivo e o do frame, sem
+     * carregar nem reconstruir o índice (ex.: miniaturas). Preenche
+     * {@code out} com offset e tamanho do JPEG; retorna false se o arquivo não
+     * começar com um frame completo.
+     */
+    public static boolean findFirstFrame(FileChannel channel, long[] out) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(Math.max(RIFF_MAGIC.length, LEGACY_FRAME_HEADER_SIZE));
+        readFully(channel, header, 0);
+
+        long position;
+        int length;
+        if (!header.hasRemaining() && matches(header, 0, RIFF_MAGIC)) {
+            ByteBuffer chunk = ByteBuffer.allocate(AviMuxer.CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, chunk, AviMuxer.HEADER_SIZE);
+            if (chunk.hasRemaining() || chunk.getInt(0) != AviMuxer.FOURCC_FRAME) return false;
+            position = AviMuxer.HEADER_SIZE + AviMuxer.CHUNK_HEADER_SIZE;
+            length = chunk.getInt(4);
+        } else {
+            if (header.hasRemaining()) return false;
+            position = LEGACY_FRAME_HEADER_SIZE;
+            length = header.getInt(0);
+        }
+
+        if (length <= 0 || length > MAX_FRAME_SIZE || position + length > size) return false;
+        out[0] = position;
+        out[1] = length;
+        return true;
+    }
+
+    /**
+     * Reconstrói o índice de um .mjpeg antigo percorrendo os tamanhos dos
+     * frames até o primeiro registro inválido ou truncado.
+     */
+    private static RecordingIndex scanLegacy(FileChannel channel, long size) throws IOException {
+        ByteBuffer frameHeader = ByteBuffer.allocate(LEGACY_FRAME_HEADER_SIZE);
+        Entries entries = new Entries();
+        long position = 0;
+
+        while (position + LEGACY_FRAME_HEADER_SIZE <= size) {
+            frameHeader.clear();
+            readFully(channel, frameHeader, position);
+            if (frameHeader.hasRemaining()) break;
+
+            int length = frameHeader.getInt(0);
+            long dataOffset = position + LEGACY_FRAME_HEADER_SIZE;
+            if (length <= 0 || length > MAX_FRAME_SIZE || dataOffset + length > size) break;
+
+            entries.add(dataOffset, length, entries.count * LEGACY_FRAME_INTERVAL_US);
+            position = dataOffset + length;
+        }
+
+        return entries.toIndex(VERSION_LEGACY, 0, true, position);
+    }
+
+    /**
+     * Lê o idx1 (e os timestamps do chunk 'bsts') de um AVI gravado por
+     * {@link AviMuxer}; sem índice, varre os chunks do 'movi'.
+     */
+    private static RecordingIndex loadAvi(FileChannel channel, long size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(AviMuxer.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, 0);
+        if (header.hasRemaining()
+                || header.getInt(AviMuxer.MOVI_FOURCC_OFFSET) != AviMuxer.FOURCC_MOVI) {
+            throw new IOException("Layout AVI não suportado");
+        }
+
+        int usPerFrame = header.getInt(AviMuxer.AVIH_US_PER_FRAME_OFFSET);
+        if (usPerFrame <= 0) usPerFrame = AviMuxer.DEFAULT_FRAME_INTERVAL_US;
+
+        long moviSize = header.getInt(AviMuxer.MOVI_SIZE_OFFSET) & 0xFFFFFFFFL;
+        long moviEnd = AviMuxer.MOVI_FOURCC_OFFSET + moviSize;
+        if (moviSize >= 4 && moviEnd + AviMuxer.CHUNK_HEADER_SIZE <= size) {
+            RecordingIndex index = readAviIndex(channel, moviEnd, size, usPerFrame);
+            if (index != null) return index;
+        }
+        return scanAvi(channel, size, usPerFrame);
+    }
+
+    private static RecordingIndex readAviIndex(FileChannel channel, long moviEnd, long size,
+                                               int usPerFrame) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(AviMuxer.CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, chunk, moviEnd);
+        if (chunk.getInt(0) != AviMuxer.FOURCC_IDX1) return null;
+
+        long indexSize = chunk.getInt(4) & 0xFFFFFFFFL;
+        long indexStart = moviEnd + AviMuxer.CHUNK_HEADER_SIZE;
+        if (indexSize % AviMuxer.INDEX_ENTRY_SIZE != 0 || indexStart + indexSize > size) return null;
+
+        int count = (int) (indexSize / AviMuxer.INDEX_ENTRY_SIZE);
+        ByteBuffer entries = ByteBuffer.allocate((int) indexSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, entries, indexStart);
+        entries.flip();
+
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        long[] timestamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            entries.getInt(); // ckid
+            entries.getInt(); // flags
+            offsets[i] = AviMuxer.MOVI_FOURCC_OFFSET + (entries.getInt() & 0xFFFFFFFFL)
+                    + AviMuxer.CHUNK_HEADER_SIZE;
+            lengths[i] = entries.getInt();
+            timestamps[i] = (long) i * usPerFrame;
+            if (offsets[i] + lengths[i] > moviEnd) return null; // Índice inconsistente
+        }
+
+        // Timestamps reais, se o chunk 'bsts' estiver presente e completo
+        long startTimeMillis = 0;
+        long timestampsStart = indexStart + indexSize;
+        int timestampsSize = 8 + count * 8;
+        chunk.clear();
+        readFully(channel, chunk, timestampsStart);
+        if (!chunk.hasRemaining()
+                && chunk.getInt(0) == AviMuxer.FOURCC_TIMESTAMPS
+                && chunk.getInt(4) == timestampsSize
+                && timestampsStart + AviMuxer.CHUNK_HEADER_SIZE + timestampsSize <= size) {
+            ByteBuffer values = ByteBuffer.allocate(timestampsSize).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, values, timestampsStart + AviMuxer.CHUNK_HEADER_SIZE);
+            values.flip();
+            startTimeMillis = values.getLong();
+            for (int i = 0; i < count; i++) {
+                timestamps[i] = values.getLong();
+            }
+        }
+
+        return new RecordingIndex(VERSION_AVI, startTimeMillis, false,
+                offsets, lengths, timestamps, count, moviEnd);
+    }
+
+    private static RecordingIndex scanAvi(FileChannel channel, long size, int usPerFrame)
+            throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(AviMuxer.CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        Entries entries = new Entries();
+        long position = AviMuxer.HEADER_SIZE;
+
+        while (position + AviMuxer.CHUNK_HEADER_SIZE <= size) {
+            chunk.clear();
+            readFully(channel, chunk, position);
+            if (chunk.hasRemaining() || chunk.getInt(0) != AviMuxer.FOURCC_FRAME) break;
+
+            int length = chunk.getInt(4);
+            long dataOffset = position + AviMuxer.CHUNK_HEADER_SIZE;
+            if (length <= 0 || length > MAX_FRAME_SIZE || dataOffset + length > size) break;
+
+            entries.add(dataOffset, length, (long) entries.count * usPerFrame);
+            position = dataOffset + AviMuxer.paddedLength(length);
+        }
+
+        return entries.toIndex(VERSION_AVI, 0, true, position);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position + dst.position());
+            if (read < 0) break;
+        }
+    }
+
+    private static boolean matches(ByteBuffer buffer, int offset, byte[] magic) {
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer.get(offset + i) != magic[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Lê o JPEG do frame {@code frame} para {@code dst} (a partir da posição atual).
+     */
+    public void readFrame(FileChannel channel, int frame, ByteBuffer dst) throws IOException {
+        int limit = dst.limit();
+        dst.limit(dst.position() + lengths[frame]);
+        long base = offsets[frame] - dst.position();
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, base + dst.position()) < 0) {
+                throw new IOException("Frame truncado: " + frame);
+            }
+        }
+        dst.limit(limit);
+    }
+
+    /**
+     * Último frame com timestamp menor ou igual a {@code timestampUs}.
+     */
+    public int findFrame(long timestampUs) {
+        if (frameCount == 0) return -1;
+        int found = Arrays.binarySearch(timestampsUs, 0, frameCount, timestampUs);
+        if (found >= 0) return found;
+        return Math.max(0, -found - 2);
+    }
+
+    /**
+     * Formato do arquivo: {@link MjpegRecordingFormat#VERSION_LEGACY} ou
+     * {@link #VERSION_AVI}.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Início da gravação (epoch ms); 0 para arquivos antigos.
+     */
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * True se o índice foi reconstruído por varredura (arquivo antigo ou sem índice).
+     */
+    public boolean isRebuilt() {
+        return rebuilt;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public long getOffset(int frame) {
+        return offsets[frame];
+    }
+
+    public int getLength(int frame) {
+        return lengths[frame];
+    }
+
+    public long getTimestampUs(int frame) {
+        return timestampsUs[frame];
+    }
+
+    public long getDurationUs() {
+        return frameCount == 0 ? 0 : timestampsUs[frameCount - 1] - timestampsUs[0];
+    }
+
+    /**
+     * Fim do último frame válido (onde começa o idx1, se houver).
+     */
+    public long getDataEnd() {
+        return dataEnd;
+    }
+
+    /**
+     * Acumula entradas durante uma varredura.
+     */
+    private static final class Entries {
+        long[] offsets = new long[256];
+        int[] lengths = new int[256];
+        long[] timestamps = new long[256];
+        int count;
+
+        void add(long offset, int length, long timestampUs) {
+            if (count == offsets.length) {
+                int capacity = count * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+            }
+            offsets[count] = offset;
+            lengths[count] = length;
+            timestamps[count] = timestampUs;
+            count++;
+        }
+
+        RecordingIndex toIndex(int version, long startTimeMillis, boolean rebuilt, long dataEnd) {
+            return new RecordingIndex(version, startTimeMillis, rebuilt,
+                    offsets, lengths, timestamps, count, dataEnd);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Diário de uma gravação em segmentos ({@link SegmentedRecorder}): um arquivo
+ * de texto ao lado dos vídeos que descreve o conjunto de segmentos.
+ *
+ * <pre>
+ * bsafe-segments 1
+ * start &lt;início, epoch ms&gt;
+ * segment &lt;arquivo&gt;          (segmento aberto; vazio se não recebeu frames)
+ * done &lt;arquivo&gt; &lt;frames&gt;   (segmento finalizado com índice)
+ * closed                    (gravação encerrada)
+ * </pre>
+ *
+ * Cada linha é acrescentada com fsync, nas fronteiras de segmento. Se o app
+ * morrer no meio, {@link #recover(File)} finaliza na próxima abertura os
+ * segmentos sem "done", descartando apenas o último frame incompleto.
+ */
+public final class RecordingJournal {
+
+    private static final String TAG = "RecordingJournal";
+
+    public static final String SUFFIX = ".journal";
+
+    private static final String HEADER = "bsafe-segments 1";
+
+    private final File file;
+
+    private RecordingJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Cria o diário de uma gravação nova.
+     */
+    public static RecordingJournal create(File file, long startTimeMillis) throws IOException {
+        RecordingJournal journal = new RecordingJournal(file);
+        journal.write(HEADER + "\nstart " + startTimeMillis + "\n", false);
+        return journal;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void appendSegment(File segment) throws IOException {
+        write("segment " + segment.getName() + "\n", true);
+    }
+
+    public void appendDone(File segment, long frames) throws IOException {
+        write("done " + segment.getName() + " " + frames + "\n", true);
+    }
+
+    public void appendClosed() throws IOException {
+        write("closed\n", true);
+    }
+
+    private void write(String lines, boolean append) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, append)) {
+            out.write(lines.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Segmentos listados no diário, na ordem de gravação.
+     */
+    public static List<File> readSegments(File journalFile) throws IOException {
+        return new ArrayList<>(read(journalFile).segments.keySet());
+    }
+
+    /**
+     * Finaliza os segmentos de uma gravação interrompida e marca o diário como
+     * encerrado. Retorna quantos segmentos precisaram ser recuperados; 0 se a
+     * gravação já estava encerrada.
+     */
+    public static int recover(File journalFile) throws IOException {
+        Contents contents = read(journalFile);
+        if (contents.closed) return 0;
+
+        int recovered = 0;
+        for (Map.Entry<File, Boolean> segment : contents.segments.entrySet()) {
+            File file = segment.getKey();
+            if (segment.getValue() || !file.exists()) continue;
+            if (file.length() < AviMuxer.HEADER_SIZE) {
+                // Segmento aberto sem nenhum frame gravado
+                file.delete();
+                continue;
+            }
+            if (AviMuxer.recover(file)) recovered++;
+        }
+        // A última linha pode ter ficado pela metade: começa uma nova
+        new RecordingJournal(journalFile).write("\nclosed\n", true);
+        StreamLog.i(TAG, "Gravação interrompida encerrada: " + journalFile.getName()
+                + " (" + recovered + " segmentos recuperados)");
+        return recovered;
+    }
+
+    private static final class Contents {
+        // Segmento -> finalizado ("done")
+        final Map<File, Boolean> segments = new LinkedHashMap<>();
+        boolean closed;
+    }
+
+    private static Contents read(File journalFile) throws IOException {
+        Contents contents = new Contents();
+        File dir = journalFile.getParentFile();
+        try (BufferedReader reader = new BufferedReader(new FileReader(journalFile))) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Diário de gravação inválido: " + journalFile.getName());
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Uma linha truncada pela queda é ignorada
+                if (line.startsWith("segment ")) {
+                    contents.segments.put(new File(dir, line.substring(8)), false);
+                } else if (line.startsWith("done ")) {
+                    int end = line.lastIndexOf(' ');
+                    if (end > 5) contents.segments.put(new File(dir, line.substring(5, end)), true);
+                } else if (line.equals("closed")) {
+                    contents.closed = true;
+                }
+            }
+        }
+        return contents;
+    }
+}
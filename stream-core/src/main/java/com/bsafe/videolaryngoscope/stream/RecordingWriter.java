@@ -0,0 +1,403 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.bsafe.videolaryngoscope.stream.AviMuxer.CHUNK_HEADER_SIZE;
+
+/**
+ * Gravação de frames em thread própria, com escrita em lotes alinhados.
+ *
+ * {@link #submit(FrameBuffer)} apenas copia o frame para um anel de bytes
+ * (produtor único, consumidor único) e retorna; a thread de escrita despeja o
+ * anel no arquivo em blocos múltiplos de {@link #WRITE_ALIGNMENT}. Se o
+ * armazenamento não acompanhar e o anel encher, o frame é descartado e
+ * contado: o receptor nunca bloqueia.
+ *
+ * O arquivo é um AVI MJPEG ({@link AviMuxer}) que abre em players comuns: os
+ * JPEGs são anexados como chunks e, ao fechar, o índice e os timestamps de
+ * captura são gravados no fim e o header é corrigido. Como o anel é escrito em
+ * sequência, a posição no anel é o próprio offset no arquivo.
+ *
+ * Com um {@link PreRecordBuffer}, os frames anteriores ao início entram no
+ * arquivo antes dos ao vivo: o espaço e as entradas de índice deles são
+ * reservados em {@link #start(PreRecordBuffer)} e a thread de escrita os grava
+ * direto do buffer antes de consumir o anel.
+ */
+public final class RecordingWriter {
+
+    private static final String TAG = "RecordingWriter";
+
+    private static final int RING_CAPACITY = 4 * 1024 * 1024;
+    private static final int WRITE_ALIGNMENT = 4096;
+    private static final int BATCH_SIZE = 256 * 1024;
+    private static final long FLUSH_INTERVAL_NANOS = 250_000_000L;
+
+    // No Android a prioridade Java 4 corresponde a THREAD_PRIORITY_BACKGROUND
+    private static final int WRITER_PRIORITY = Thread.NORM_PRIORITY - 1;
+
+    /**
+     * Chamado na thread de escrita quando o arquivo foi fechado.
+     */
+    public interface Listener {
+        void onRecordingFinished(RecordingWriter writer, IOException error);
+    }
+
+    private final File file;
+    private final Listener listener;
+    private final ByteBuffer ring = ByteBuffer.allocateDirect(RING_CAPACITY);
+    private final ByteBuffer producerView = ring.duplicate();
+    private final ByteBuffer consumerView = ring.duplicate();
+    private final byte[] chunkHeader = new byte[CHUNK_HEADER_SIZE]; // Apenas produtor
+    private final byte[] padding = new byte[1];
+    private final int[] frameSize = new int[2];
+
+    // Frames anteriores ao início, gravados pela thread de escrita antes do anel
+    private PreRecordBuffer preRoll;
+    private int preRollFrames;
+    private byte[] preRollHeader;
+
+    // Índice de frames (produtor escreve; consumidor lê após o encerramento)
+    private long[] indexOffsets = new long[1024];
+    private int[] indexLengths = new int[1024];
+    private long[] indexTimestamps = new long[1024];
+    private int indexCount;
+    private long firstFrameNanos;
+    private long startTimeMillis;
+
+    // Posições absolutas (crescem sempre); o índice no anel é pos % RING_CAPACITY
+    private volatile long writePos;
+    private volatile long readPos;
+
+    private volatile boolean closing = false;
+    private FileChannel channel;
+    private Thread writerThread;
+
+    // Estatísticas
+    private volatile long framesAccepted;
+    private volatile long framesDropped;
+    private volatile long bytesWritten;
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    public RecordingWriter(File file, Listener listener) {
+        this.file = file;
+        this.listener = listener;
+    }
+
+    public void start() throws IOException {
+        start(null);
+    }
+
+    /**
+     * Inicia a gravação incluindo antes o conteúdo de {@code preRoll} (pode ser
+     * null). O buffer fica congelado até a thread de escrita gravá-lo.
+     */
+    public void start(PreRecordBuffer preRoll) throws IOException {
+        channel = new FileOutputStream(file).getChannel();
+        startNanos = System.nanoTime();
+        if (preRoll != null) {
+            reservePreRoll(preRoll);
+        }
+        writerThread = new Thread(this::writeLoop);
+        writerThread.setName("RecordWriter");
+        writerThread.setPriority(WRITER_PRIORITY);
+        writerThread.start();
+    }
+
+    /**
+     * Enfileira uma cópia do frame. Não bloqueia; retorna false se o frame foi
+     * descartado porque o armazenamento está atrasado. Deve ser chamado sempre
+     * pela mesma thread.
+     */
+    public synchronized boolean submit(FrameBuffer frame) {
+        if (closing) return false;
+
+        long pos = writePos;
+        if (pos == 0) {
+            pos = putFileHeader(frame);
+        }
+
+        int length = frame.getLength();
+        int needed = CHUNK_HEADER_SIZE + AviMuxer.paddedLength(length);
+        if (pos + needed > AviMuxer.MAX_FILE_SIZE
+                || RING_CAPACITY - (pos - readPos) < needed) {
+            writePos = pos;
+            framesDropped++;
+            return false;
+        }
+
+        AviMuxer.putChunkHeader(chunkHeader, length);
+        put(chunkHeader, 0, CHUNK_HEADER_SIZE, pos);
+        put(frame.getData(), 0, length, pos + CHUNK_HEADER_SIZE);
+        if ((length & 1) != 0) {
+            put(padding, 0, 1, pos + CHUNK_HEADER_SIZE + length);
+        }
+        addIndexEntry(pos + CHUNK_HEADER_SIZE, length,
+                (frame.getTimestampNanos() - firstFrameNanos) / 1000);
+
+        writePos = pos + needed; // Publica para o consumidor
+        framesAccepted++;
+
+        if (writePos - readPos >= BATCH_SIZE) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+
+    private long putFileHeader(FrameBuffer firstFrame) {
+        firstFrameNanos = firstFrame.getTimestampNanos();
+        startTimeMillis = System.currentTimeMillis()
+                - (System.nanoTime() - firstFrameNanos) / 1_000_000;
+
+        // As dimensões vêm do SOF do primeiro frame; o stream não muda de resolução
+        if (!JpegUtils.readSize(firstFrame.getData(), firstFrame.getLength(), frameSize)) {
+            frameSize[0] = 0;
+            frameSize[1] = 0;
+        }
+
+        byte[] header = new byte[AviMuxer.HEADER_SIZE];
+        AviMuxer.putHeader(header, frameSize[0], frameSize[1]);
+        put(header, 0, header.length, 0);
+        return header.length;
+    }
+
+    /**
+     * Reserva no início do arquivo o header e os chunks do pré-roll; o anel
+     * passa a começar logo depois deles.
+     */
+    private synchronized void reservePreRoll(PreRecordBuffer buffer) {
+        int count = buffer.freeze();
+        if (count == 0) {
+            buffer.release();
+            return;
+        }
+
+        firstFrameNanos = buffer.getTimestampNanos(0);
+        startTimeMillis = System.currentTimeMillis()
+                - (System.nanoTime() - firstFrameNanos) / 1_000_000;
+        preRollHeader = new byte[AviMuxer.HEADER_SIZE];
+        AviMuxer.putHeader(preRollHeader, buffer.getFrameWidth(), buffer.getFrameHeight());
+
+        long pos = AviMuxer.HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getLength(i);
+            addIndexEntry(pos + CHUNK_HEADER_SIZE, length,
+                    (buffer.getTimestampNanos(i) - firstFrameNanos) / 1000);
+            pos += CHUNK_HEADER_SIZE + AviMuxer.paddedLength(length);
+        }
+        framesAccepted = count;
+
+        preRoll = buffer;
+        preRollFrames = count;
+        readPos = pos;
+        writePos = pos;
+    }
+
+    private void addIndexEntry(long offset, int length, long timestampUs) {
+        if (indexCount == indexOffsets.length) {
+            int capacity = indexCount * 2;
+            indexOffsets = Arrays.copyOf(indexOffsets, capacity);
+            indexLengths = Arrays.copyOf(indexLengths, capacity);
+            indexTimestamps = Arrays.copyOf(indexTimestamps, capacity);
+        }
+        indexOffsets[indexCount] = offset;
+        indexLengths[indexCount] = length;
+        indexTimestamps[indexCount] = timestampUs;
+        indexCount++;
+    }
+
+    private void put(byte[] src, int offset, int length, long pos) {
+        int index = (int) (pos % RING_CAPACITY);
+        int first = Math.min(length, RING_CAPACITY - index);
+        producerView.position(index);
+        producerView.put(src, offset, first);
+        if (first < length) {
+            producerView.position(0);
+            producerView.put(src, offset + first, length - first);
+        }
+    }
+
+    /**
+     * Encerra a gravação sem bloquear: a thread de escrita grava o que resta,
+     * fecha o arquivo e chama o {@link Listener}.
+     */
+    public void stop() {
+        synchronized (this) {
+            // Após este ponto nenhum submit() altera o anel ou o índice
+            closing = true;
+        }
+        LockSupport.unpark(writerThread);
+    }
+
+    private void writeLoop() {
+        IOException error = null;
+        long lastFlush = System.nanoTime();
+
+        try {
+            if (preRoll != null) {
+                writePreRoll();
+            }
+
+            while (true) {
+                boolean finishing = closing;
+                long available = writePos - readPos;
+                boolean flushDue = System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS;
+
+                if (available >= BATCH_SIZE || (available > 0 && (flushDue || finishing))) {
+                    // Fora do encerramento, escreve só blocos inteiros para manter o alinhamento
+                    if (writeChunk(available, !finishing) > 0) {
+                        lastFlush = System.nanoTime();
+                        continue;
+                    }
+                }
+
+                if (finishing && writePos == readPos) break;
+                LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+            }
+            writeTrailer();
+            channel.force(true); // Arquivo completo no armazenamento antes de avisar
+        } catch (IOException e) {
+            StreamLog.e(TAG, "Erro gravando " + file.getName(), e);
+            error = e;
+            closing = true;
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (error == null) error = e;
+            }
+            endNanos = System.nanoTime();
+        }
+
+        StreamLog.d(TAG, "Gravação finalizada: " + file.getName()
+                + " - frames: " + framesAccepted
+                + ", descartados: " + framesDropped
+                + ", " + bytesWritten + " bytes"
+                + " (" + (getBytesPerSecond() / 1024) + " KB/s)");
+
+        if (listener != null) {
+            listener.onRecordingFinished(this, error);
+        }
+    }
+
+    /**
+     * Grava header e chunks do pré-roll direto do buffer fora do heap e o libera.
+     */
+    private void writePreRoll() throws IOException {
+        PreRecordBuffer buffer = preRoll;
+        preRoll = null;
+        try {
+            ByteBuffer data = buffer.duplicateData();
+            ByteBuffer header = ByteBuffer.wrap(new byte[CHUNK_HEADER_SIZE]);
+            ByteBuffer pad = ByteBuffer.wrap(new byte[1]);
+            ByteBuffer[] chunk = {header, data, pad};
+
+            writeFully(ByteBuffer.wrap(preRollHeader));
+            for (int i = 0; i < preRollFrames; i++) {
+                int offset = buffer.getOffset(i);
+                int length = buffer.getLength(i);
+                AviMuxer.putChunkHeader(header.array(), length);
+                header.clear();
+                data.limit(offset + length).position(offset);
+                pad.limit(length & 1).position(0);
+                writeFully(chunk);
+            }
+            bytesWritten = channel.position();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+    }
+
+    private void writeTrailer() throws IOException {
+        int count;
+        synchronized (this) {
+            count = indexCount;
+        }
+        if (count == 0) return;
+
+        long fileEnd = readPos;
+        AviMuxer.finish(channel, fileEnd, startTimeMillis,
+                indexOffsets, indexLengths, indexTimestamps, count);
+        bytesWritten = channel.size();
+    }
+
+    private int writeChunk(long available, boolean aligned) throws IOException {
+        int index = (int) (readPos % RING_CAPACITY);
+        int length = (int) Math.min(available, RING_CAPACITY - index);
+        if (aligned) {
+            // Termina em fronteira de bloco do arquivo (o pré-roll desloca o início)
+            length -= (int) ((readPos + length) % WRITE_ALIGNMENT);
+        }
+        if (length <= 0) return 0;
+
+        consumerView.limit(index + length).position(index);
+        while (consumerView.hasRemaining()) {
+            channel.write(consumerView);
+        }
+
+        readPos += length; // Libera o espaço para o produtor
+        bytesWritten += length;
+        return length;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Tamanho que o arquivo terá com os frames já aceitos (header incluído),
+     * mesmo os que ainda estão no anel.
+     */
+    public long getFileSize() {
+        return writePos;
+    }
+
+    public long getFramesAccepted() {
+        return framesAccepted;
+    }
+
+    /**
+     * Frames descartados porque o anel estava cheio (armazenamento lento).
+     */
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * Bytes aguardando escrita no anel.
+     */
+    public long getQueuedBytes() {
+        return writePos - readPos;
+    }
+
+    public int getQueueCapacity() {
+        return RING_CAPACITY;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Taxa média de escrita desde o início da gravação.
+     */
+    public long getBytesPerSecond() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        long elapsed = Math.max(1, end - startNanos);
+        return bytesWritten * 1_000_000_000L / elapsed;
+    }
+}
@@ -0,0 +1,285 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Gravação dividida em segmentos AVI limitados por tamanho ou duração, com um
+ * {@link RecordingJournal} descrevendo o conjunto.
+ *
+ * Cada segmento é um {@link RecordingWriter} independente, que abre sozinho
+ * em players comuns. Ao passar de {@link #PREPARE_PERCENT}% do limite, o
+ * próximo segmento é aberto em background; a troca acontece entre dois
+ * {@link #submit} na thread do receptor, então nenhum frame é perdido nem
+ * espera por E/S. Se o próximo ainda não estiver pronto, o segmento atual
+ * continua além do limite até ele ficar. O diário recebe uma linha com fsync
+ * em cada fronteira (segmento aberto, segmento finalizado, fim).
+ *
+ * Os nomes seguem o primeiro arquivo: VID_x.avi, VID_x_002.avi, ... e o
+ * diário VID_x.journal.
+ */
+public final class SegmentedRecorder {
+
+    private static final String TAG = "SegmentedRecorder";
+
+    // O próximo segmento é preparado ao passar desta fração de qualquer limite
+    static final int PREPARE_PERCENT = 80;
+
+    public static final class Config {
+        /** Limite de tamanho por segmento; no máximo {@link AviMuxer#MAX_FILE_SIZE}. */
+        public long maxSegmentBytes = 256L * 1024 * 1024;
+        public long maxSegmentDurationMs = 5 * 60_000;
+    }
+
+    /**
+     * Chamado uma vez, quando todos os segmentos foram fechados.
+     */
+    public interface Listener {
+        void onRecordingFinished(SegmentedRecorder recorder, IOException error);
+    }
+
+    private final File firstFile;
+    private final Config config;
+    private final Listener listener;
+    private final String baseName;
+
+    // Diário e preparação de segmentos, em ordem, fora da thread do receptor
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable);
+        thread.setName("RecordingJournal");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    private RecordingJournal journal; // Apenas ioExecutor
+
+    private final AtomicReference<RecordingWriter> standby = new AtomicReference<>();
+    private volatile boolean preparing = false;
+
+    // Protegidos por this
+    private RecordingWriter current;
+    private long segmentStartNanos;
+    private int lastSegmentNumber = 1;
+    private final List<RecordingWriter> segments = new ArrayList<>(); // Os que receberam frames
+    private int openWriters;
+    private boolean stopped = false;
+    private IOException error;
+
+    public SegmentedRecorder(File firstFile, Config config, Listener listener) {
+        this.firstFile = firstFile;
+        this.config = config;
+        this.listener = listener;
+        String name = firstFile.getName();
+        int dot = name.lastIndexOf('.');
+        this.baseName = dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Abre o primeiro segmento, que começa com o conteúdo de {@code preRoll}
+     * (pode ser null).
+     */
+    public synchronized void start(PreRecordBuffer preRoll) throws IOException {
+        long startTimeMillis = System.currentTimeMillis();
+        File journalFile = new File(firstFile.getParentFile(), baseName + RecordingJournal.SUFFIX);
+        ioExecutor.execute(() -> {
+            try {
+                journal = RecordingJournal.create(journalFile, startTimeMillis);
+                journal.appendSegment(firstFile);
+            } catch (IOException e) {
+                StreamLog.e(TAG, "Erro criando diário da gravação", e);
+            }
+        });
+
+        current = newWriter(firstFile);
+        try {
+            current.start(preRoll);
+        } catch (IOException e) {
+            ioExecutor.shutdown();
+            throw e;
+        }
+        segments.add(current);
+        segmentStartNanos = -1;
+    }
+
+    private RecordingWriter newWriter(File file) {
+        synchronized (this) {
+            openWriters++;
+        }
+        return new RecordingWriter(file, this::onSegmentFinished);
+    }
+
+    /**
+     * Enfileira o frame no segmento atual, trocando de segmento se o limite
+     * foi atingido. Não bloqueia; false se o frame foi descartado.
+     */
+    public synchronized boolean submit(FrameBuffer frame) {
+        if (stopped) return false;
+
+        long timestamp = frame.getTimestampNanos();
+        if (segmentStartNanos < 0) segmentStartNanos = timestamp;
+
+        long maxBytes = Math.min(config.maxSegmentBytes, AviMuxer.MAX_FILE_SIZE);
+        long bytes = current.getFileSize() + AviMuxer.CHUNK_HEADER_SIZE + frame.getLength();
+        long durationMs = (timestamp - segmentStartNanos) / 1_000_000;
+        if (current.getFramesAccepted() > 0) {
+            if (bytes > maxBytes || durationMs >= config.maxSegmentDurationMs) {
+                rollOver(timestamp);
+            } else if (bytes * 100 >= maxBytes * PREPARE_PERCENT
+                    || durationMs * 100 >= config.maxSegmentDurationMs * PREPARE_PERCENT) {
+                prepareNext();
+            }
+        }
+        return current.submit(frame);
+    }
+
+    /**
+     * Abre o próximo segmento em background, se ainda não há um pronto.
+     */
+    private void prepareNext() {
+        if (preparing || standby.get() != null) return;
+        preparing = true;
+
+        File file = new File(firstFile.getParentFile(),
+                String.format(Locale.US, "%s_%03d.avi", baseName, ++lastSegmentNumber));
+        RecordingWriter writer = newWriter(file);
+        ioExecutor.execute(() -> {
+            try {
+                // Registrado antes de existir: na recuperação, arquivo vazio é apagado
+                if (journal != null) journal.appendSegment(file);
+                writer.start();
+                standby.set(writer);
+            } catch (IOException e) {
+                StreamLog.e(TAG, "Erro abrindo segmento " + file.getName(), e);
+                boolean finished;
+                synchronized (SegmentedRecorder.this) {
+                    openWriters--;
+                    finished = stopped && openWriters == 0;
+                }
+                if (finished) finishRecording();
+            } finally {
+                preparing = false;
+            }
+        });
+    }
+
+    private void rollOver(long timestamp) {
+        RecordingWriter next = standby.getAndSet(null);
+        if (next == null) {
+            // Ainda não pronto: o segmento atual continua além do limite por enquanto
+            prepareNext();
+            return;
+        }
+
+        RecordingWriter previous = current;
+        current = next;
+        segments.add(next);
+        segmentStartNanos = timestamp;
+        previous.stop();
+        StreamLog.i(TAG, "Novo segmento: " + next.getFile().getName()
+                + " (anterior: " + previous.getFramesAccepted() + " frames)");
+    }
+
+    /**
+     * Encerra a gravação sem bloquear; o {@link Listener} é chamado quando
+     * todos os segmentos estiverem fechados.
+     */
+    public void stop() {
+        RecordingWriter writer;
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            writer = current;
+        }
+        writer.stop();
+
+        // Um segmento preparado e ainda não usado
+        ioExecutor.execute(() -> {
+            RecordingWriter unused = standby.getAndSet(null);
+            if (unused != null) unused.stop();
+        });
+    }
+
+    private void onSegmentFinished(RecordingWriter writer, IOException segmentError) {
+        boolean used;
+        boolean finished;
+        synchronized (this) {
+            used = segments.contains(writer);
+            if (segmentError != null && used && error == null) error = segmentError;
+            openWriters--;
+            finished = stopped && openWriters == 0;
+        }
+        if (!used) {
+            writer.getFile().delete();
+        }
+
+        ioExecutor.execute(() -> {
+            if (journal != null && used && segmentError == null) {
+                try {
+                    journal.appendDone(writer.getFile(), writer.getFramesAccepted());
+                } catch (IOException e) {
+                    StreamLog.e(TAG, "Erro atualizando diário da gravação", e);
+                }
+            }
+            if (finished) finishRecording();
+        });
+    }
+
+    /**
+     * Marca o diário como encerrado e avisa o {@link Listener}. Apenas ioExecutor.
+     */
+    private void finishRecording() {
+        if (journal != null) {
+            try {
+                journal.appendClosed();
+            } catch (IOException e) {
+                StreamLog.e(TAG, "Erro encerrando diário da gravação", e);
+            }
+        }
+        ioExecutor.shutdown();
+
+        IOException result;
+        synchronized (this) {
+            result = error;
+        }
+        if (listener != null) listener.onRecordingFinished(this, result);
+    }
+
+    /**
+     * Primeiro segmento (o arquivo pedido em {@link #SegmentedRecorder}).
+     */
+    public File getFile() {
+        return firstFile;
+    }
+
+    public synchronized List<File> getSegmentFiles() {
+        List<File> files = new ArrayList<>(segments.size());
+        for (RecordingWriter writer : segments) files.add(writer.getFile());
+        return files;
+    }
+
+    public synchronized long getFramesAccepted() {
+        long total = 0;
+        for (RecordingWriter writer : segments) total += writer.getFramesAccepted();
+        return total;
+    }
+
+    /**
+     * Frames descartados porque o armazenamento não acompanhou.
+     */
+    public synchronized long getFramesDropped() {
+        long total = 0;
+        for (RecordingWriter writer : segments) total += writer.getFramesDropped();
+        return total;
+    }
+
+    public synchronized long getBytesWritten() {
+        long total = 0;
+        for (RecordingWriter writer : segments) total += writer.getBytesWritten();
+        return total;
+    }
+}
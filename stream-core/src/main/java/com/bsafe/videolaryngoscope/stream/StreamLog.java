@@ -0,0 +1,67 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Log do motor de streaming, independente do Android.
+ *
+ * Por padrão escreve em {@code System.err}; o app instala um {@link Sink} que
+ * repassa para {@code android.util.Log}. As prioridades têm os mesmos valores
+ * de {@code android.util.Log}.
+ */
+public final class StreamLog {
+
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public interface Sink {
+        void log(int priority, String tag, String message, Throwable error);
+    }
+
+    private static volatile Sink sink = StreamLog::printToStderr;
+
+    private StreamLog() {}
+
+    public static void setSink(Sink newSink) {
+        sink = newSink != null ? newSink : StreamLog::printToStderr;
+    }
+
+    public static void d(String tag, String message) {
+        sink.log(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        sink.log(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        sink.log(WARN, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable error) {
+        sink.log(WARN, tag, message, error);
+    }
+
+    public static void e(String tag, String message) {
+        sink.log(ERROR, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        sink.log(ERROR, tag, message, error);
+    }
+
+    private static void printToStderr(int priority, String tag, String message, Throwable error) {
+        String level = priority >= ERROR ? "E" : priority == WARN ? "W" : priority == INFO ? "I" : "D";
+        StringBuilder line = new StringBuilder()
+                .append(level).append('/').append(tag).append(": ").append(message);
+        if (error != null) {
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            line.append('\n').append(trace);
+        }
+        System.err.println(line);
+    }
+}
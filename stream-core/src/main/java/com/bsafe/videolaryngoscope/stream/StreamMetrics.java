@@ -0,0 +1,345 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Contadores do stream ao vivo, atualizados sem lock pelos estágios de
+ * recepção, remontagem, decodificação, exibição e gravação.
+ *
+ * Os contadores da thread receptora têm um único escritor e são campos
+ * volatile; os que vários estágios atualizam são atômicos. {@link #snapshot()}
+ * pode ser chamado de qualquer thread e a diferença entre dois snapshots
+ * ({@link Snapshot#since(Snapshot)}) dá as taxas e percentis do intervalo.
+ */
+public final class StreamMetrics {
+
+    /**
+     * Motivo do descarte de um frame.
+     */
+    public enum DropReason {
+        INCOMPLETE,       // Prazo ou janela de remontagem esgotados com pacotes faltando
+        POOL_EXHAUSTED,   // Sem FrameBuffer livre (consumidor atrasado)
+        CORRUPT,          // Remontado sem SOI ou maior que o FrameBuffer
+        SUPERSEDED,       // Substituído por um frame mais novo antes de ser exibido
+        DECODE_ERROR,     // JPEG rejeitado pelo decodificador
+        RECORDING_BACKLOG // Não gravado: armazenamento atrasado
+    }
+
+    private static final DropReason[] REASONS = DropReason.values();
+
+    // Limites superiores dos buckets de latência (ms); o último bucket é aberto
+    private static final int[] LATENCY_BOUNDS_MS = {5, 10, 16, 25, 33, 50, 66, 100, 150, 250, 500, 1000};
+    private static final int LATENCY_BUCKETS = LATENCY_BOUNDS_MS.length + 1;
+
+    // Apenas thread receptora
+    private volatile long packetsReceived;
+    private volatile long bytesReceived;
+    private volatile long framesAssembled;
+    private volatile long packetGaps;
+    private volatile long framesSalvaged;
+
+    // Apenas thread do watchdog
+    private volatile long stallsRecovered;
+    private volatile long recoveryMillisTotal;
+
+    // Apenas main thread (apresentação em vsync, opcional)
+    private volatile long framesLate;
+    private volatile long jitterSamples;
+    private volatile long jitterMicrosTotal;
+
+    // Início da sessão aguardando o primeiro frame exibido (0 = já medido)
+    private volatile long sessionStartNanos;
+    private volatile long timeToFirstFrameMs = -1;
+
+    private final AtomicLong framesDisplayed = new AtomicLong();
+    private final AtomicLongArray framesDropped = new AtomicLongArray(REASONS.length);
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+
+    /**
+     * Pacote UDP recebido. Apenas thread receptora.
+     */
+    void onPacketReceived(int bytes) {
+        packetsReceived++;
+        bytesReceived += bytes;
+    }
+
+    /**
+     * Frame remontado e entregue ao sink. Apenas thread receptora.
+     */
+    void onFrameAssembled() {
+        framesAssembled++;
+    }
+
+    /**
+     * Índices de pacote que não chegaram em um frame descartado. Apenas thread receptora.
+     */
+    void onPacketGaps(int missing) {
+        packetGaps += missing;
+    }
+
+    /**
+     * Frame incompleto entregue até o último intervalo de restart intacto
+     * (também conta em framesAssembled). Apenas thread receptora.
+     */
+    void onFrameSalvaged() {
+        framesSalvaged++;
+    }
+
+    /**
+     * O stream voltou após um travamento; {@code recoveryMs} vai da detecção
+     * até o primeiro frame novo. Apenas thread do watchdog.
+     */
+    void onStallRecovered(long recoveryMs) {
+        stallsRecovered++;
+        recoveryMillisTotal += recoveryMs;
+    }
+
+    /**
+     * Marca o início de uma sessão ({@link System#nanoTime()}); o próximo frame
+     * exibido define {@link Snapshot#timeToFirstFrameMs}.
+     */
+    public void markSessionStart(long startNanos) {
+        sessionStartNanos = startNanos;
+    }
+
+    /**
+     * Frame liberado no vsync pelo estágio de apresentação. {@code jitterNanos}
+     * é o desvio do intervalo entre exibições (-1 sem amostra); {@code late}
+     * indica que o vsync previsto foi perdido. Apenas main thread.
+     */
+    public void onFramePresented(long jitterNanos, boolean late) {
+        if (jitterNanos >= 0) {
+            jitterSamples++;
+            jitterMicrosTotal += jitterNanos / 1000;
+        }
+        if (late) {
+            framesLate++;
+        }
+    }
+
+    public void onFrameDropped(DropReason reason) {
+        framesDropped.incrementAndGet(reason.ordinal());
+    }
+
+    /**
+     * Frame exibido; registra a latência desde a chegada do primeiro pacote
+     * ({@link FrameBuffer#getTimestampNanos()}, relógio {@link System#nanoTime()}).
+     */
+    public void onFrameDisplayed(long firstPacketNanos, long nowNanos) {
+        framesDisplayed.incrementAndGet();
+
+        long sessionStart = sessionStartNanos;
+        if (sessionStart != 0) {
+            sessionStartNanos = 0;
+            timeToFirstFrameMs = (nowNanos - sessionStart) / 1_000_000L;
+        }
+        if (firstPacketNanos == 0) return;
+
+        long latencyMs = (nowNanos - firstPacketNanos) / 1_000_000L;
+        int bucket = 0;
+        while (bucket < LATENCY_BOUNDS_MS.length && latencyMs > LATENCY_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets.incrementAndGet(bucket);
+    }
+
+    public Snapshot snapshot() {
+        long[] drops = new long[REASONS.length];
+        for (int i = 0; i < drops.length; i++) {
+            drops[i] = framesDropped.get(i);
+        }
+        long[] latency = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = latencyBuckets.get(i);
+        }
+        return new Snapshot(System.nanoTime(), 0, packetsReceived, bytesReceived,
+                framesAssembled, framesSalvaged, framesDisplayed.get(), packetGaps,
+                stallsRecovered, recoveryMillisTotal, timeToFirstFrameMs,
+                framesLate, jitterSamples, jitterMicrosTotal, drops, latency);
+    }
+
+    /**
+     * Valores acumulados (ou de um intervalo, se criado por {@link #since(Snapshot)}).
+     */
+    public static final class Snapshot {
+
+        public static final String CSV_HEADER = "time_ms,packets_s,kbytes_s,assembled_fps,displayed_fps,"
+                + "packet_gaps,drop_incomplete,drop_pool,drop_corrupt,drop_superseded,drop_decode,"
+                + "drop_recording,latency_p50_ms,latency_p90_ms,latency_p99_ms,stalls,recovery_avg_ms,"
+                + "first_frame_ms,present_jitter_ms,late_frames,salvaged";
+
+        public final long timeNanos;
+        public final long intervalNanos;
+        public final long packetsReceived;
+        public final long bytesReceived;
+        public final long framesAssembled;
+        public final long framesSalvaged;
+        public final long framesDisplayed;
+        public final long packetGaps;
+        public final long stallsRecovered;
+        public final long recoveryMillisTotal;
+        public final long timeToFirstFrameMs; // Última sessão; não é diferença entre snapshots
+        public final long framesLate;
+        public final long jitterSamples;
+        public final long jitterMicrosTotal;
+        private final long[] framesDropped;
+        private final long[] latencyBuckets;
+
+        private Snapshot(long timeNanos, long intervalNanos, long packetsReceived, long bytesReceived,
+                         long framesAssembled, long framesSalvaged, long framesDisplayed, long packetGaps,
+                         long stallsRecovered, long recoveryMillisTotal, long timeToFirstFrameMs,
+                         long framesLate, long jitterSamples, long jitterMicrosTotal,
+                         long[] framesDropped, long[] latencyBuckets) {
+            this.timeNanos = timeNanos;
+            this.intervalNanos = intervalNanos;
+            this.packetsReceived = packetsReceived;
+            this.bytesReceived = bytesReceived;
+            this.framesAssembled = framesAssembled;
+            this.framesSalvaged = framesSalvaged;
+            this.framesDisplayed = framesDisplayed;
+            this.packetGaps = packetGaps;
+            this.stallsRecovered = stallsRecovered;
+            this.recoveryMillisTotal = recoveryMillisTotal;
+            this.timeToFirstFrameMs = timeToFirstFrameMs;
+            this.framesLate = framesLate;
+            this.jitterSamples = jitterSamples;
+            this.jitterMicrosTotal = jitterMicrosTotal;
+            this.framesDropped = framesDropped;
+            this.latencyBuckets = latencyBuckets;
+        }
+
+        /**
+         * Diferença entre este snapshot e um anterior.
+         */
+        public Snapshot since(Snapshot previous) {
+            long[] drops = new long[framesDropped.length];
+            for (int i = 0; i < drops.length; i++) {
+                drops[i] = framesDropped[i] - previous.framesDropped[i];
+            }
+            long[] latency = new long[latencyBuckets.length];
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = latencyBuckets[i] - previous.latencyBuckets[i];
+            }
+            return new Snapshot(timeNanos, timeNanos - previous.timeNanos,
+                    packetsReceived - previous.packetsReceived,
+                    bytesReceived - previous.bytesReceived,
+                    framesAssembled - previous.framesAssembled,
+                    framesSalvaged - previous.framesSalvaged,
+                    framesDisplayed - previous.framesDisplayed,
+                    packetGaps - previous.packetGaps,
+                    stallsRecovered - previous.stallsRecovered,
+                    recoveryMillisTotal - previous.recoveryMillisTotal,
+                    timeToFirstFrameMs,
+                    framesLate - previous.framesLate,
+                    jitterSamples - previous.jitterSamples,
+                    jitterMicrosTotal - previous.jitterMicrosTotal, drops, latency);
+        }
+
+        public long getFramesDropped(DropReason reason) {
+            return framesDropped[reason.ordinal()];
+        }
+
+        /**
+         * Descartes que o usuário percebe como vídeo travado (exclui os da gravação).
+         */
+        public long getDisplayDrops() {
+            long total = 0;
+            for (DropReason reason : REASONS) {
+                if (reason != DropReason.RECORDING_BACKLOG) {
+                    total += framesDropped[reason.ordinal()];
+                }
+            }
+            return total;
+        }
+
+        /**
+         * Tempo médio de recuperação dos travamentos, ou -1 se não houve nenhum.
+         */
+        public long getAverageRecoveryMs() {
+            return stallsRecovered > 0 ? recoveryMillisTotal / stallsRecovered : -1;
+        }
+
+        /**
+         * Jitter médio de apresentação (ms), ou -1 sem o estágio de vsync ativo.
+         */
+        public double getAverageJitterMs() {
+            return jitterSamples > 0 ? jitterMicrosTotal / 1000.0 / jitterSamples : -1;
+        }
+
+        public double perSecond(long count) {
+            return intervalNanos > 0 ? count * 1e9 / intervalNanos : 0;
+        }
+
+        /**
+         * Limite superior (ms) do bucket que contém o percentil {@code p} (0-100),
+         * -1 sem amostras ou {@link Integer#MAX_VALUE} acima do último limite.
+         */
+        public int getLatencyPercentileMs(double p) {
+            long total = 0;
+            for (long count : latencyBuckets) {
+                total += count;
+            }
+            if (total == 0) return -1;
+
+            long rank = (long) Math.ceil(total * p / 100.0);
+            long seen = 0;
+            for (int i = 0; i < latencyBuckets.length; i++) {
+                seen += latencyBuckets[i];
+                if (seen >= Math.max(1, rank)) {
+                    return i < LATENCY_BOUNDS_MS.length ? LATENCY_BOUNDS_MS[i] : Integer.MAX_VALUE;
+                }
+            }
+            return Integer.MAX_VALUE;
+        }
+
+        /**
+         * Linha no formato de {@link #CSV_HEADER}; {@code timeMillis} é o relógio de parede.
+         */
+        public String toCsvLine(long timeMillis) {
+            StringBuilder line = new StringBuilder(160).append(timeMillis)
+                    .append(',').append(Math.round(perSecond(packetsReceived)))
+                    .append(',').append(Math.round(perSecond(bytesReceived) / 1024))
+                    .append(',').append(String.format(Locale.US, "%.1f", perSecond(framesAssembled)))
+                    .append(',').append(String.format(Locale.US, "%.1f", perSecond(framesDisplayed)))
+                    .append(',').append(packetGaps);
+            for (long drops : framesDropped) {
+                line.append(',').append(drops);
+            }
+            return line.append(',').append(getLatencyPercentileMs(50))
+                    .append(',').append(getLatencyPercentileMs(90))
+                    .append(',').append(getLatencyPercentileMs(99))
+                    .append(',').append(stallsRecovered)
+                    .append(',').append(getAverageRecoveryMs())
+                    .append(',').append(timeToFirstFrameMs)
+                    .append(',').append(String.format(Locale.US, "%.1f", getAverageJitterMs()))
+                    .append(',').append(framesLate)
+                    .append(',').append(framesSalvaged)
+                    .toString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(128)
+                    .append("pacotes: ").append(packetsReceived)
+                    .append(", remontados: ").append(framesAssembled)
+                    .append(" (parciais: ").append(framesSalvaged).append(')')
+                    .append(", exibidos: ").append(framesDisplayed)
+                    .append(", lacunas: ").append(packetGaps)
+                    .append(", descartes:");
+            for (DropReason reason : REASONS) {
+                text.append(' ').append(reason.name().toLowerCase(Locale.US))
+                        .append('=').append(framesDropped[reason.ordinal()]);
+            }
+            return text.append(", latência p50/p99: ").append(getLatencyPercentileMs(50))
+                    .append('/').append(getLatencyPercentileMs(99)).append(" ms")
+                    .append(", travamentos: ").append(stallsRecovered)
+                    .append(" (recuperação média ").append(getAverageRecoveryMs()).append(" ms)")
+                    .append(", primeiro frame: ").append(timeToFirstFrameMs).append(" ms")
+                    .append(", jitter: ").append(String.format(Locale.US, "%.1f", getAverageJitterMs()))
+                    .append(" ms, atrasados: ").append(framesLate)
+                    .toString();
+        }
+    }
+}
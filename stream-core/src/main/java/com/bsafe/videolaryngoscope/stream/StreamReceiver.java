@@ -0,0 +1,177 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Receptor UDP do stream de vídeo baseado em {@link DatagramChannel}.
+ *
+ * A thread dorme no {@link Selector} até chegar dados e então drena vários
+ * datagramas por despertar, todos no mesmo {@link ByteBuffer} direto. O
+ * encerramento é feito por {@link Selector#wakeup()}; o timeout do select serve
+ * apenas para expirar frames incompletos, sem lançar exceções quando ocioso.
+ */
+public final class StreamReceiver {
+
+    private static final String TAG = "StreamReceiver";
+
+    private static final int MAX_DATAGRAM_SIZE = 2048;
+    private static final int MAX_DRAIN_PER_WAKEUP = 64;
+    private static final int SOCKET_RECEIVE_BUFFER = 1024 * 1024; // Absorve rajadas do Wi-Fi
+
+    private final int port;
+    private final FrameAssembler assembler;
+    private final StreamMetrics metrics;
+    private final long idleTimeoutMs;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+    private DatagramChannel channel;
+    private Selector selector;
+    private Thread receiverThread;
+    private volatile boolean running = false;
+
+    // Estatísticas
+    private volatile long packetsReceived;
+    private volatile long bytesReceived;
+    private volatile long wakeups;
+
+    public StreamReceiver(int port, FrameAssembler assembler, long idleTimeoutMs) {
+        this(port, assembler, idleTimeoutMs, new StreamMetrics());
+    }
+
+    public StreamReceiver(int port, FrameAssembler assembler, long idleTimeoutMs, StreamMetrics metrics) {
+        this.port = port;
+        this.assembler = assembler;
+        this.metrics = metrics;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Abre e associa o canal à porta de dados.
+     */
+    public void open() throws IOException {
+        channel = DatagramChannel.open();
+        try {
+            channel.socket().setReuseAddress(true);
+            channel.socket().setReceiveBufferSize(SOCKET_RECEIVE_BUFFER);
+            channel.socket().bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public void start() {
+        running = true;
+        receiverThread = new Thread(this::receiveLoop);
+        receiverThread.setName("StreamRX");
+        receiverThread.start();
+    }
+
+    /**
+     * Acorda a thread receptora, aguarda seu término e fecha o canal.
+     */
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+
+        if (receiverThread != null) {
+            try {
+                receiverThread.join(2000);
+            } catch (InterruptedException ignored) {}
+            receiverThread = null;
+        }
+        close();
+    }
+
+    private void close() {
+        try {
+            if (selector != null) selector.close();
+        } catch (IOException e) {
+            StreamLog.w(TAG, "Erro fechando selector", e);
+        }
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            StreamLog.w(TAG, "Erro fechando canal", e);
+        }
+        selector = null;
+        channel = null;
+    }
+
+    private void receiveLoop() {
+        StreamLog.d(TAG, "Receptor iniciado na porta " + port);
+
+        try {
+            while (running) {
+                int ready = selector.select(idleTimeoutMs);
+                if (ready == 0) {
+                    // Timeout ou wakeup: apenas expira frames incompletos
+                    assembler.expire(System.nanoTime());
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                wakeups++;
+
+                for (int i = 0; i < MAX_DRAIN_PER_WAKEUP; i++) {
+                    buffer.clear();
+                    if (channel.receive(buffer) == null) break;
+                    buffer.flip();
+
+                    int length = buffer.remaining();
+                    packetsReceived++;
+                    bytesReceived += length;
+                    metrics.onPacketReceived(length);
+
+                    assembler.onPacket(buffer, System.nanoTime());
+                }
+            }
+        } catch (ClosedChannelException e) {
+            if (running) {
+                StreamLog.e(TAG, "Canal fechado inesperadamente", e);
+            }
+        } catch (IOException e) {
+            if (running) {
+                StreamLog.e(TAG, "Erro recebendo", e);
+            }
+        }
+
+        StreamLog.d(TAG, "Receptor finalizado. Total: " + packetsReceived + " pacotes em "
+                + wakeups + " despertares");
+    }
+
+    /**
+     * Porta local efetiva (útil quando o receptor é criado com porta 0).
+     */
+    public int getLocalPort() {
+        DatagramChannel current = channel;
+        return current != null ? current.socket().getLocalPort() : -1;
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Quantas vezes a thread acordou com dados; pacotes / despertares indica a
+     * eficiência da drenagem em lote.
+     */
+    public long getWakeups() {
+        return wakeups;
+    }
+}
@@ -0,0 +1,116 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AviMuxerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoverCutMidChunkKeepsWholeFrames() throws IOException {
+        File file = folder.newFile("VID_test.avi");
+        long moviEnd = TestRecordings.writeAvi(file, 5, false);
+        TestRecordings.appendPartialChunk(file, 5, AviMuxer.CHUNK_HEADER_SIZE + 300);
+
+        assertTrue(AviMuxer.recover(file));
+
+        RecordingIndex index = TestRecordings.loadIndex(file);
+        assertFalse("idx1 deveria ter sido gravado", index.isRebuilt());
+        assertEquals(5, index.getFrameCount());
+        assertEquals(moviEnd, index.getDataEnd());
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(TestRecordings.jpeg(i), TestRecordings.readFrame(file, index, i));
+        }
+        assertValidLayout(file, moviEnd, 5);
+    }
+
+    @Test
+    public void recoverCutInsideChunkHeader() throws IOException {
+        File file = folder.newFile("VID_test.avi");
+        long moviEnd = TestRecordings.writeAvi(file, 3, false);
+        TestRecordings.appendPartialChunk(file, 3, 4);
+
+        assertTrue(AviMuxer.recover(file));
+
+        RecordingIndex index = TestRecordings.loadIndex(file);
+        assertFalse(index.isRebuilt());
+        assertEquals(3, index.getFrameCount());
+        assertValidLayout(file, moviEnd, 3);
+    }
+
+    @Test
+    public void recoverIsIdempotent() throws IOException {
+        File file = folder.newFile("VID_test.avi");
+        TestRecordings.writeAvi(file, 4, false);
+        TestRecordings.appendPartialChunk(file, 4, 100);
+        assertTrue(AviMuxer.recover(file));
+        byte[] recovered = TestRecordings.readAll(file);
+
+        assertFalse(AviMuxer.recover(file));
+        assertArrayEquals(recovered, TestRecordings.readAll(file));
+    }
+
+    @Test
+    public void finalizedAviIsLeftUntouched() throws IOException {
+        File file = folder.newFile("VID_test.avi");
+        TestRecordings.writeAvi(file, 6, true);
+        byte[] before = TestRecordings.readAll(file);
+
+        assertFalse(AviMuxer.recover(file));
+        assertArrayEquals(before, TestRecordings.readAll(file));
+
+        RecordingIndex index = TestRecordings.loadIndex(file);
+        assertEquals(6, index.getFrameCount());
+        assertEquals(TestRecordings.START_TIME_MILLIS, index.getStartTimeMillis());
+    }
+
+    @Test
+    public void fileShorterThanHeaderIsIgnored() throws IOException {
+        File file = folder.newFile("VID_test.avi");
+        byte[] header = new byte[AviMuxer.HEADER_SIZE];
+        AviMuxer.putHeader(header, 640, 480);
+        Files.write(file.toPath(), Arrays.copyOf(header, 100));
+
+        assertFalse(AviMuxer.recover(file));
+        assertEquals(100, file.length());
+    }
+
+    /**
+     * Tamanhos do RIFF e do 'movi', contagem de frames e idx1 coerentes com o arquivo.
+     */
+    private static void assertValidLayout(File file, long moviEnd, int frames) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(TestRecordings.readAll(file)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(AviMuxer.FOURCC_RIFF, data.getInt(0));
+        assertEquals(data.capacity() - 8, data.getInt(4));
+        assertEquals(moviEnd - AviMuxer.MOVI_FOURCC_OFFSET, data.getInt(AviMuxer.MOVI_SIZE_OFFSET));
+        assertEquals(frames, data.getInt(48)); // avih.dwTotalFrames
+
+        int idx1 = (int) moviEnd;
+        assertEquals(AviMuxer.FOURCC_IDX1, data.getInt(idx1));
+        assertEquals(frames * AviMuxer.INDEX_ENTRY_SIZE, data.getInt(idx1 + 4));
+        long expectedOffset = AviMuxer.HEADER_SIZE - AviMuxer.MOVI_FOURCC_OFFSET;
+        for (int i = 0; i < frames; i++) {
+            int entry = idx1 + AviMuxer.CHUNK_HEADER_SIZE + i * AviMuxer.INDEX_ENTRY_SIZE;
+            int length = TestRecordings.jpeg(i).length;
+            assertEquals(AviMuxer.FOURCC_FRAME, data.getInt(entry));
+            assertEquals(expectedOffset, data.getInt(entry + 8));
+            assertEquals(length, data.getInt(entry + 12));
+            expectedOffset += AviMuxer.CHUNK_HEADER_SIZE + AviMuxer.paddedLength(length);
+        }
+    }
+}
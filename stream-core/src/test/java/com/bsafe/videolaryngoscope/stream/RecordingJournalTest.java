@@ -0,0 +1,123 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoverFinalizesSegmentsWithoutDone() throws IOException {
+        File first = folder.newFile("VID_x.avi");
+        File second = new File(folder.getRoot(), "VID_x_002.avi");
+        TestRecordings.writeAvi(first, 4, true);
+        TestRecordings.writeAvi(second, 3, false);
+        TestRecordings.appendPartialChunk(second, 3, 200);
+        byte[] firstBefore = TestRecordings.readAll(first);
+
+        // "done" só do primeiro: o segundo estava aberto na queda
+        File journalFile = newJournal(first);
+        appendRaw(journalFile, "segment VID_x_002.avi\ndone VID_x.avi 4\n");
+
+        assertEquals(1, RecordingJournal.recover(journalFile));
+
+        assertArrayEquals(firstBefore, TestRecordings.readAll(first));
+        RecordingIndex index = TestRecordings.loadIndex(second);
+        assertFalse(index.isRebuilt());
+        assertEquals(3, index.getFrameCount());
+        assertEquals(0, RecordingJournal.recover(journalFile));
+    }
+
+    @Test
+    public void recoverWithNoDoneLineAtAll() throws IOException {
+        File first = folder.newFile("VID_x.avi");
+        TestRecordings.writeAvi(first, 5, false);
+        TestRecordings.appendPartialChunk(first, 5, 600);
+
+        File journalFile = newJournal(first);
+
+        assertEquals(1, RecordingJournal.recover(journalFile));
+        assertEquals(5, TestRecordings.loadIndex(first).getFrameCount());
+        assertEquals(Collections.singletonList(first), RecordingJournal.readSegments(journalFile));
+        assertEquals(0, RecordingJournal.recover(journalFile));
+    }
+
+    @Test
+    public void recoverToleratesTruncatedLastLine() throws IOException {
+        File first = folder.newFile("VID_x.avi");
+        TestRecordings.writeAvi(first, 2, false);
+        TestRecordings.appendPartialChunk(first, 2, 50);
+
+        File journalFile = newJournal(first);
+        appendRaw(journalFile, "done VID_x.a"); // Queda no meio da linha
+
+        assertEquals(1, RecordingJournal.recover(journalFile));
+        assertEquals(2, TestRecordings.loadIndex(first).getFrameCount());
+
+        // O "closed" vai numa linha própria e é reconhecido na próxima leitura
+        String contents = new String(TestRecordings.readAll(journalFile), StandardCharsets.UTF_8);
+        assertTrue(contents, contents.endsWith("done VID_x.a\nclosed\n"));
+        assertEquals(Collections.singletonList(first), RecordingJournal.readSegments(journalFile));
+        assertEquals(0, RecordingJournal.recover(journalFile));
+    }
+
+    @Test
+    public void recoverDeletesEmptyStandbySegment() throws IOException {
+        File first = folder.newFile("VID_x.avi");
+        File standby = folder.newFile("VID_x_002.avi"); // Aberto em background, sem frames
+        TestRecordings.writeAvi(first, 3, true);
+        byte[] firstBefore = TestRecordings.readAll(first);
+
+        File journalFile = newJournal(first);
+        appendRaw(journalFile, "segment VID_x_002.avi\ndone VID_x.avi 3\n");
+
+        assertEquals(0, RecordingJournal.recover(journalFile));
+        assertFalse(standby.exists());
+        assertArrayEquals(firstBefore, TestRecordings.readAll(first));
+    }
+
+    @Test
+    public void closedJournalIsLeftUntouched() throws IOException {
+        File first = folder.newFile("VID_x.avi");
+        TestRecordings.writeAvi(first, 2, false);
+
+        File journalFile = newJournal(first);
+        appendRaw(journalFile, "closed\n");
+        byte[] journalBefore = TestRecordings.readAll(journalFile);
+        byte[] firstBefore = TestRecordings.readAll(first);
+
+        assertEquals(0, RecordingJournal.recover(journalFile));
+        assertArrayEquals(journalBefore, TestRecordings.readAll(journalFile));
+        assertArrayEquals(firstBefore, TestRecordings.readAll(first));
+    }
+
+    /**
+     * Diário como o {@link SegmentedRecorder} o cria: cabeçalho e primeiro segmento.
+     */
+    private File newJournal(File first) throws IOException {
+        File journalFile = new File(folder.getRoot(), "VID_x" + RecordingJournal.SUFFIX);
+        RecordingJournal journal = RecordingJournal.create(journalFile, TestRecordings.START_TIME_MILLIS);
+        journal.appendSegment(first);
+        return journalFile;
+    }
+
+    private static void appendRaw(File file, String text) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
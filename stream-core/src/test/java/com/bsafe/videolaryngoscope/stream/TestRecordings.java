@@ -0,0 +1,116 @@
+package com.bsafe.videolaryngoscope.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Gravações AVI sintéticas para os testes, montadas com os mesmos métodos
+ * do {@link AviMuxer} que o {@link RecordingWriter} usa.
+ */
+final class TestRecordings {
+
+    static final long START_TIME_MILLIS = 1_700_000_000_000L;
+    static final long FRAME_INTERVAL_US = 33_333;
+
+    private TestRecordings() {}
+
+    /**
+     * JPEG mínimo (SOI, conteúdo, EOI) com tamanho e conteúdo próprios de
+     * cada frame; os tamanhos ímpares exercitam o padding dos chunks.
+     */
+    static byte[] jpeg(int frame) {
+        int length = 1000 + frame * 37;
+        byte[] data = new byte[length];
+        data[0] = (byte) 0xFF;
+        data[1] = (byte) JpegUtils.MARKER_SOI;
+        for (int i = 2; i < length - 2; i++) data[i] = (byte) (frame + i);
+        data[length - 2] = (byte) 0xFF;
+        data[length - 1] = (byte) 0xD9;
+        return data;
+    }
+
+    /**
+     * Escreve header e {@code frames} chunks; com {@code finish}, também índice
+     * e timestamps, como numa gravação encerrada normalmente. Retorna o fim
+     * do 'movi'.
+     */
+    static long writeAvi(File file, int frames, boolean finish) throws IOException {
+        long[] offsets = new long[frames];
+        int[] lengths = new int[frames];
+        long[] timestamps = new long[frames];
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            byte[] header = new byte[AviMuxer.HEADER_SIZE];
+            AviMuxer.putHeader(header, 640, 480);
+            write(channel, header, 0);
+
+            long position = AviMuxer.HEADER_SIZE;
+            byte[] chunkHeader = new byte[AviMuxer.CHUNK_HEADER_SIZE];
+            for (int i = 0; i < frames; i++) {
+                byte[] jpeg = jpeg(i);
+                AviMuxer.putChunkHeader(chunkHeader, jpeg.length);
+                write(channel, chunkHeader, position);
+                offsets[i] = position + AviMuxer.CHUNK_HEADER_SIZE;
+                lengths[i] = jpeg.length;
+                timestamps[i] = i * FRAME_INTERVAL_US;
+                write(channel, jpeg, offsets[i]);
+                position = offsets[i] + AviMuxer.paddedLength(jpeg.length);
+                if (position > channel.size()) write(channel, new byte[1], position - 1);
+            }
+
+            if (finish) {
+                AviMuxer.finish(channel, position, START_TIME_MILLIS,
+                        offsets, lengths, timestamps, frames);
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Acrescenta um chunk cortado depois de {@code bytes} bytes (header
+     * incluído), como numa queda no meio da escrita.
+     */
+    static void appendPartialChunk(File file, int frame, int bytes) throws IOException {
+        byte[] jpeg = jpeg(frame);
+        byte[] chunk = new byte[AviMuxer.CHUNK_HEADER_SIZE + jpeg.length];
+        AviMuxer.putChunkHeader(chunk, jpeg.length);
+        System.arraycopy(jpeg, 0, chunk, AviMuxer.CHUNK_HEADER_SIZE, jpeg.length);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            write(channel, Arrays.copyOf(chunk, bytes), channel.size());
+        }
+    }
+
+    static RecordingIndex loadIndex(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return RecordingIndex.load(raf.getChannel());
+        }
+    }
+
+    static byte[] readFrame(File file, RecordingIndex index, int frame) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer dst = ByteBuffer.allocate(index.getLength(frame));
+            index.readFrame(raf.getChannel(), frame, dst);
+            return dst.array();
+        }
+    }
+
+    static byte[] readAll(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static void write(FileChannel channel, byte[] data, long position) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(data);
+        while (src.hasRemaining()) {
+            channel.write(src, position + src.position());
+        }
+    }
+}